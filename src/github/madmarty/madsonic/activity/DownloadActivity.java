@@ -26,6 +26,7 @@ import static github.madmarty.madsonic.domain.PlayerState.STOPPED;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -56,7 +57,7 @@ import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.view.animation.AnimationUtils;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
@@ -73,6 +74,7 @@ import github.madmarty.madsonic.domain.RepeatMode;
 import github.madmarty.madsonic.service.DownloadFile;
 import github.madmarty.madsonic.service.DownloadService;
 import github.madmarty.madsonic.service.MusicService;
+import github.madmarty.madsonic.service.PlayQueue;
 import github.madmarty.madsonic.service.MusicServiceFactory;
 import github.madmarty.madsonic.util.Constants;
 import github.madmarty.madsonic.util.HorizontalSlider;
@@ -115,6 +117,7 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
     private ScheduledExecutorService executorService;
     private DownloadFile currentPlaying;
     private long currentRevision;
+    private SongListAdapter songListAdapter;
     private EditText playlistNameView;
     private GestureDetector gestureScanner;
     private int swipeDistance;
@@ -324,6 +327,8 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
                 }
             }
         });
+        songListAdapter = new SongListAdapter();
+        playlistView.setAdapter(songListAdapter);
         playlistView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
@@ -393,6 +398,9 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
         executorService.scheduleWithFixedDelay(runnable, 0L, 1000L, TimeUnit.MILLISECONDS);
 
         DownloadService downloadService = getDownloadService();
+        if (downloadService != null) {
+            downloadService.addQueueListener(queueListener);
+        }
         if (downloadService == null || downloadService.getCurrentPlaying() == null) {
             playlistFlipper.setDisplayedChild(1);
             buttonBarFlipper.setDisplayedChild(1);
@@ -453,6 +461,9 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
     protected void onPause() {
         super.onPause();
         executorService.shutdown();
+        if (getDownloadService() != null) {
+            getDownloadService().removeQueueListener(queueListener);
+        }
         if (visualizerView != null) {
             visualizerView.setActive(false);
         }
@@ -574,19 +585,16 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
                 return true;
             case R.id.menu_remove:
                 getDownloadService().remove(song);
-                onDownloadListChanged();
                 return true;
 			case R.id.menu_delete:
 				getDownloadService().remove(song);
 				List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>(1);
 				songs.add(song.getSong());
 				getDownloadService().delete(songs);
-				onDownloadListChanged();
 				return true;
             case R.id.menu_remove_all:
                 getDownloadService().setShufflePlayEnabled(false);
                 getDownloadService().clear();
-                onDownloadListChanged();
                 return true;
             case R.id.menu_screen_on_off:
                 if (getDownloadService().getKeepScreenOn()) {
@@ -614,10 +622,6 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
             return;
         }
 
-        if (currentRevision != getDownloadService().getDownloadListUpdateRevision()) {
-            onDownloadListChanged();
-        }
-
         if (currentPlaying != getDownloadService().getCurrentPlaying()) {
             onCurrentChanged();
         }
@@ -697,11 +701,7 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
             return;
         }
 
-        List<DownloadFile> list = downloadService.getDownloads();
-
-        playlistView.setAdapter(new SongListAdapter(list));
-        emptyTextView.setVisibility(list.isEmpty() ? View.VISIBLE : View.GONE);
-        currentRevision = downloadService.getDownloadListUpdateRevision();
+        queueListener.onQueueChanged(downloadService.getDownloadQueueSnapshot());
 
         switch (downloadService.getRepeatMode()) {
             case OFF:
@@ -718,6 +718,50 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
         }
     }
 
+    private final DownloadService.QueueListener queueListener = new DownloadService.QueueListener() {
+        @Override
+        public void onQueueChanged(PlayQueue.Snapshot snapshot) {
+            if (snapshot.getRevision() == currentRevision) {
+                return;
+            }
+            PlayQueue.Diff diff = snapshot.getDiff();
+            if (diff != null && diff.getFromRevision() == currentRevision) {
+                showDownloads(snapshot, diff);
+                return;
+            }
+
+            // Some changes were missed, so show the latest list as it is.
+            DownloadService downloadService = getDownloadService();
+            if (downloadService != null) {
+                PlayQueue.Snapshot latest = downloadService.getDownloadQueueSnapshot();
+                if (latest.getRevision() != currentRevision) {
+                    showDownloads(latest, null);
+                }
+            }
+        }
+    };
+
+    private void showDownloads(PlayQueue.Snapshot snapshot, PlayQueue.Diff diff) {
+        int first = playlistView.getFirstVisiblePosition();
+        View firstView = playlistView.getChildAt(0);
+        int top = firstView == null ? 0 : firstView.getTop();
+
+        currentRevision = snapshot.getRevision();
+        if (diff != null && diff.isEmpty()) {
+            return;
+        }
+        songListAdapter.setDownloads(snapshot.getDownloads());
+        emptyTextView.setVisibility(snapshot.getDownloads().isEmpty() ? View.VISIBLE : View.GONE);
+
+        // Keep the song at the top in place, rather than its position, when songs are added or removed above it.
+        if (diff != null) {
+            int position = diff.getNewPosition(first);
+            if (position != -1 && position != first) {
+                playlistView.setSelectionFromTop(position, top);
+            }
+        }
+    }
+
     private void onCurrentChanged() {
         if (getDownloadService() == null) {
             return;
@@ -767,7 +811,7 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
 
         switch (playerState) {
             case DOWNLOADING:
-                long bytes = currentPlaying.getPartialFile().length();
+                long bytes = currentPlaying.getPartialLength();
                 statusTextView.setText(getResources().getString(R.string.download_playerstate_downloading, Util.formatLocalizedBytes(bytes, this)));
                 break;
             case PREPARING:
@@ -807,9 +851,27 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
         jukeboxButton.setTextColor(getDownloadService().isJukeboxEnabled() ? COLOR_BUTTON_ENABLED : COLOR_BUTTON_DISABLED);
     }
 
-    private class SongListAdapter extends ArrayAdapter<DownloadFile> {
-        public SongListAdapter(List<DownloadFile> entries) {
-            super(DownloadActivity.this, android.R.layout.simple_list_item_1, entries);
+    private class SongListAdapter extends BaseAdapter {
+        private List<DownloadFile> downloads = Collections.emptyList();
+
+        public void setDownloads(List<DownloadFile> downloads) {
+            this.downloads = downloads;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return downloads.size();
+        }
+
+        @Override
+        public DownloadFile getItem(int position) {
+            return downloads.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
         }
 
         @Override
@@ -820,8 +882,13 @@ public class DownloadActivity extends SubsonicTabActivity implements OnGestureLi
             } else {
                 view = new SongView(DownloadActivity.this);
             }
+
+            // Recycled rows that still show the same song, e.g., those above an insertion, aren't bound again.
             DownloadFile downloadFile = getItem(position);
-            view.setSong(downloadFile.getSong(), false);
+            if (view.getTag() != downloadFile) {
+                view.setSong(downloadFile.getSong(), false);
+                view.setTag(downloadFile);
+            }
             return view;
         }
     }
@@ -134,6 +134,7 @@ public class SearchActivity extends SubsonicTabActivity {
             }
         });
         registerForContextMenu(list);
+        list.setOnScrollListener(getImageLoader().getScrollListener());
 
 		// Button 1: gone
 		findViewById(R.id.action_button_1).setVisibility(View.GONE);
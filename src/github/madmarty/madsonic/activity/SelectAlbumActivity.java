@@ -79,6 +79,7 @@ public class SelectAlbumActivity extends SubsonicTabActivity {
 
         footer = LayoutInflater.from(this).inflate(R.layout.select_album_footer, entryList, false);
         entryList.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+        entryList.setOnScrollListener(getImageLoader().getScrollListener());
         entryList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
@@ -57,6 +57,8 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
     private ListPreference theme;
     private ListPreference maxBitrateWifi;
     private ListPreference maxBitrateMobile;
+    private ListPreference downloadLimitWifi;
+    private ListPreference downloadLimitMobile;
 	private ListPreference networkTimeout;
     private ListPreference cacheSize;
     private EditTextPreference cacheLocation;
@@ -73,6 +75,8 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
         theme = (ListPreference) findPreference(Constants.PREFERENCES_KEY_THEME);
         maxBitrateWifi = (ListPreference) findPreference(Constants.PREFERENCES_KEY_MAX_BITRATE_WIFI);
         maxBitrateMobile = (ListPreference) findPreference(Constants.PREFERENCES_KEY_MAX_BITRATE_MOBILE);
+        downloadLimitWifi = (ListPreference) findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_WIFI);
+        downloadLimitMobile = (ListPreference) findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_MOBILE);
 		networkTimeout = (ListPreference) findPreference(Constants.PREFERENCES_KEY_NETWORK_TIMEOUT);
         cacheSize = (ListPreference) findPreference(Constants.PREFERENCES_KEY_CACHE_SIZE);
         cacheLocation = (EditTextPreference) findPreference(Constants.PREFERENCES_KEY_CACHE_LOCATION);
@@ -166,6 +170,8 @@ public class SettingsActivity extends PreferenceActivity implements SharedPrefer
         theme.setSummary(theme.getEntry());
         maxBitrateWifi.setSummary(maxBitrateWifi.getEntry());
         maxBitrateMobile.setSummary(maxBitrateMobile.getEntry());
+        downloadLimitWifi.setSummary(downloadLimitWifi.getEntry());
+        downloadLimitMobile.setSummary(downloadLimitMobile.getEntry());
 		networkTimeout.setSummary(networkTimeout.getEntry());
         cacheSize.setSummary(cacheSize.getEntry());
         cacheLocation.setSummary(cacheLocation.getText());
@@ -153,6 +153,12 @@ public class SubsonicTabActivity extends Activity {
         Util.registerMediaButtonEventReceiver(this);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        getImageLoader().cancelPrefetch();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
     	if (android.os.Build.VERSION.SDK_INT < 11) {
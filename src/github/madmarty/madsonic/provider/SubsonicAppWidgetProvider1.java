@@ -26,13 +26,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.PorterDuff.Mode;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
-import android.graphics.RectF;
 import android.os.Environment;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -43,7 +36,7 @@ import github.madmarty.madsonic.activity.MainActivity;
 import github.madmarty.madsonic.domain.MusicDirectory;
 import github.madmarty.madsonic.service.DownloadService;
 import github.madmarty.madsonic.service.DownloadServiceImpl;
-import github.madmarty.madsonic.util.FileUtil;
+import github.madmarty.madsonic.util.NowPlayingArtwork;
 
 /**
  * Simple widget to show currently playing album art along
@@ -156,13 +149,12 @@ public class SubsonicAppWidgetProvider1 extends AppWidgetProvider {
         // Set the cover art
         try {
             int size = context.getResources().getDrawable(R.drawable.appwidget_art_default).getIntrinsicHeight();
-            Bitmap bitmap = currentPlaying == null ? null : FileUtil.getAlbumArtBitmap(context, currentPlaying, size);
+            Bitmap bitmap = currentPlaying == null ? null : NowPlayingArtwork.getInstance().getWidgetBitmap(context, currentPlaying);
 
             if (bitmap == null) {
                 // Set default cover art
                 views.setImageViewResource(R.id.appwidget_coverart, R.drawable.appwidget_art_unknown);
             } else {
-                bitmap = getRoundedCornerBitmap(bitmap);
                 views.setImageViewBitmap(R.id.appwidget_coverart, bitmap);
             }
         } catch (Exception x) {
@@ -176,32 +168,6 @@ public class SubsonicAppWidgetProvider1 extends AppWidgetProvider {
         pushUpdate(context, appWidgetIds, views);
     }
     
-    /**
-     * Round the corners of a bitmap for the cover art image
-     */
-    private static Bitmap getRoundedCornerBitmap(Bitmap bitmap) {
-        Bitmap output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-
-        final int color = 0xff424242;
-        final Paint paint = new Paint();
-        final float roundPx = 10;
-
-        // Add extra width to the rect so the right side wont be rounded.
-        final Rect rect = new Rect(0, 0, bitmap.getWidth() + (int) roundPx, bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        canvas.drawRoundRect(rectF, roundPx, roundPx, paint);
-
-        paint.setXfermode(new PorterDuffXfermode(Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-
-        return output;
-    }
-
     /**
      * Link up various button actions using {@link PendingIntent}.
      *
@@ -0,0 +1,89 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import android.content.Context;
+import github.madmarty.madsonic.util.CancellableTask;
+import github.madmarty.madsonic.util.TokenBucket;
+import github.madmarty.madsonic.util.Util;
+
+/**
+ * Limits the download speed of preloads and pinned songs, so that they don't compete with the song being
+ * streamed, or with browsing, for bandwidth.
+ * <p/>
+ * The limit depends on the network type, see {@link Util#getDownloadRateLimit}.  It's split between
+ * preloads and saves, which draw from separate budgets so that a background save can't hold up the next
+ * song.  The song being streamed is never limited, since that would make playback stall.
+ *
+ * @author Sindre Mehus
+ */
+final class BandwidthShaper {
+
+    // How often to read the limit from the preferences, which involves asking for the active network.
+    private static final long REFRESH_INTERVAL_MILLIS = 5000L;
+
+    // The longest sleep between checks for cancellation, or for the song starting to play.
+    private static final long MAX_SLEEP_MILLIS = 100L;
+
+    // The share of the limit given to preloads.  Saves get the rest.
+    private static final double PRELOAD_SHARE = 0.75;
+
+    private static final TokenBucket PRELOAD = new TokenBucket();
+    private static final TokenBucket SAVE = new TokenBucket();
+    private static long nextRefresh;
+
+    private BandwidthShaper() {
+    }
+
+    /**
+     * Called after the given number of bytes is received for the download.  Blocks while the download is
+     * over its budget, until it starts playing, or until the task is cancelled.
+     */
+    static void throttle(Context context, DownloadFile downloadFile, int bytes, CancellableTask task) {
+        refresh(context);
+
+        // Checked for each chunk and while waiting, as a preload becomes the stream when skipped to.
+        if (downloadFile.isPlaying()) {
+            return;
+        }
+
+        TokenBucket bucket = downloadFile.shouldSave() ? SAVE : PRELOAD;
+        long millis = bucket.take(bytes);
+        while (millis > 0L && !task.isCancelled() && !downloadFile.isPlaying()) {
+            long sleep = Math.min(millis, MAX_SLEEP_MILLIS);
+            Util.sleepQuietly(sleep);
+            millis -= sleep;
+        }
+    }
+
+    private static void refresh(Context context) {
+        synchronized (BandwidthShaper.class) {
+            long now = System.currentTimeMillis();
+            if (now < nextRefresh) {
+                return;
+            }
+            nextRefresh = now + REFRESH_INTERVAL_MILLIS;
+        }
+
+        long rate = Util.getDownloadRateLimit(context) * 1024L;
+        long preloadRate = (long) (rate * PRELOAD_SHARE);
+        PRELOAD.setRate(preloadRate);
+        SAVE.setRate(rate - preloadRate);
+    }
+}
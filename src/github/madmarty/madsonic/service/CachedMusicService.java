@@ -34,6 +34,7 @@ import github.madmarty.madsonic.domain.Playlist;
 import github.madmarty.madsonic.domain.SearchCritera;
 import github.madmarty.madsonic.domain.SearchResult;
 import github.madmarty.madsonic.domain.Version;
+import github.madmarty.madsonic.util.CacheManager;
 import github.madmarty.madsonic.util.CancellableTask;
 import github.madmarty.madsonic.util.LRUCache;
 import github.madmarty.madsonic.util.ProgressListener;
@@ -46,19 +47,89 @@ import github.madmarty.madsonic.util.Util;
 public class CachedMusicService implements MusicService {
 
     private static final int MUSIC_DIR_CACHE_SIZE = 40;
+    private static final long MUSIC_DIR_CACHE_BYTES = 2L * 1024L * 1024L;
     private static final int TTL_MUSIC_DIR = 5 * 60; // Five minutes
+    private static final int RESULT_CACHE_SIZE = 20;
+    private static final long RESULT_CACHE_BYTES = 1024L * 1024L;
+    private static final int TTL_SEARCH = 5 * 60;
+    private static final int TTL_ALBUM_LIST = 5 * 60;
+    private static final int TTL_ALBUM_LIST_RANDOM = 60; // Long enough to page back and forth, short enough to get new albums.
+    private static final int TTL_STARRED = 5 * 60;
+    private static final int TTL_PLAYLIST = 5 * 60;
+    private static final int TTL_LYRICS = 60 * 60;
+
+    // Rough heap footprint of the cached domain objects, for the byte budgets of the caches.
+    private static final long ENTRY_SIZE = 512L;
+    private static final long ITEM_SIZE = 128L;
+
+    private static final CacheManager.Sizer<MusicDirectory> MUSIC_DIRECTORY_SIZER = new CacheManager.Sizer<MusicDirectory>() {
+        @Override
+        public long sizeOf(MusicDirectory dir) {
+            return ENTRY_SIZE * (1 + dir.getChildren().size());
+        }
+    };
+    private static final CacheManager.Sizer<Indexes> INDEXES_SIZER = new CacheManager.Sizer<Indexes>() {
+        @Override
+        public long sizeOf(Indexes indexes) {
+            return ITEM_SIZE * (1 + indexes.getShortcuts().size() + indexes.getArtists().size());
+        }
+    };
+    private static final CacheManager.Sizer<SearchResult> SEARCH_RESULT_SIZER = new CacheManager.Sizer<SearchResult>() {
+        @Override
+        public long sizeOf(SearchResult result) {
+            return ITEM_SIZE * (1 + result.getArtists().size()) + ENTRY_SIZE * (result.getAlbums().size() + result.getSongs().size());
+        }
+    };
+    private static final CacheManager.Sizer<Lyrics> LYRICS_SIZER = new CacheManager.Sizer<Lyrics>() {
+        @Override
+        public long sizeOf(Lyrics lyrics) {
+            return ITEM_SIZE + (lyrics.getText() == null ? 0L : 2L * lyrics.getText().length());
+        }
+    };
+    private static final CacheManager.Sizer<TimeLimitedCache<?>> TIME_LIMITED_CACHE_SIZER = new CacheManager.Sizer<TimeLimitedCache<?>>() {
+        @Override
+        public long sizeOf(TimeLimitedCache<?> cache) {
+            return cache.getSizeInBytes();
+        }
+    };
+    private static final CacheManager.Sizer<List<?>> LIST_SIZER = new CacheManager.Sizer<List<?>>() {
+        @Override
+        public long sizeOf(List<?> list) {
+            return ITEM_SIZE * (1 + list.size());
+        }
+    };
 
     private final MusicService musicService;
     private final LRUCache<String, TimeLimitedCache<MusicDirectory>> cachedMusicDirectories;
     private final TimeLimitedCache<Boolean> cachedLicenseValid = new TimeLimitedCache<Boolean>(120, TimeUnit.SECONDS);
-    private final TimeLimitedCache<Indexes> cachedIndexes = new TimeLimitedCache<Indexes>(60 * 60, TimeUnit.SECONDS);
-    private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(60, TimeUnit.SECONDS);
-    private final TimeLimitedCache<List<MusicFolder>> cachedMusicFolders = new TimeLimitedCache<List<MusicFolder>>(10 * 3600, TimeUnit.SECONDS);
+    private final TimeLimitedCache<Indexes> cachedIndexes = new TimeLimitedCache<Indexes>(60 * 60, TimeUnit.SECONDS, INDEXES_SIZER);
+    private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(60, TimeUnit.SECONDS, LIST_SIZER);
+    private final TimeLimitedCache<List<MusicFolder>> cachedMusicFolders = new TimeLimitedCache<List<MusicFolder>>(10 * 3600, TimeUnit.SECONDS, LIST_SIZER);
+    private final TimeLimitedCache<SearchResult> cachedStarred = new TimeLimitedCache<SearchResult>(TTL_STARRED, TimeUnit.SECONDS, SEARCH_RESULT_SIZER);
+    private final LRUCache<String, TimeLimitedCache<SearchResult>> cachedSearchResults;
+    private final LRUCache<String, TimeLimitedCache<MusicDirectory>> cachedAlbumLists;
+    private final LRUCache<String, TimeLimitedCache<MusicDirectory>> cachedPlaylistContents;
+    private final LRUCache<String, TimeLimitedCache<Lyrics>> cachedLyrics;
     private String restUrl;
 
     public CachedMusicService(MusicService musicService) {
         this.musicService = musicService;
-        cachedMusicDirectories = new LRUCache<String, TimeLimitedCache<MusicDirectory>>(MUSIC_DIR_CACHE_SIZE);
+        cachedMusicDirectories = new LRUCache<String, TimeLimitedCache<MusicDirectory>>(MUSIC_DIR_CACHE_SIZE, MUSIC_DIR_CACHE_BYTES, TIME_LIMITED_CACHE_SIZER);
+        cachedSearchResults = new LRUCache<String, TimeLimitedCache<SearchResult>>(RESULT_CACHE_SIZE, RESULT_CACHE_BYTES, TIME_LIMITED_CACHE_SIZER);
+        cachedAlbumLists = new LRUCache<String, TimeLimitedCache<MusicDirectory>>(RESULT_CACHE_SIZE, RESULT_CACHE_BYTES, TIME_LIMITED_CACHE_SIZER);
+        cachedPlaylistContents = new LRUCache<String, TimeLimitedCache<MusicDirectory>>(RESULT_CACHE_SIZE, RESULT_CACHE_BYTES, TIME_LIMITED_CACHE_SIZER);
+        cachedLyrics = new LRUCache<String, TimeLimitedCache<Lyrics>>(RESULT_CACHE_SIZE, RESULT_CACHE_BYTES, TIME_LIMITED_CACHE_SIZER);
+
+        CacheManager cacheManager = CacheManager.getInstance();
+        cacheManager.register("Music directories", cachedMusicDirectories, CacheManager.Priority.NORMAL);
+        cacheManager.register("Indexes", cachedIndexes, CacheManager.Priority.HIGH);
+        cacheManager.register("Playlists", cachedPlaylists, CacheManager.Priority.NORMAL);
+        cacheManager.register("Music folders", cachedMusicFolders, CacheManager.Priority.HIGH);
+        cacheManager.register("Starred", cachedStarred, CacheManager.Priority.NORMAL);
+        cacheManager.register("Search results", cachedSearchResults, CacheManager.Priority.NORMAL);
+        cacheManager.register("Album lists", cachedAlbumLists, CacheManager.Priority.NORMAL);
+        cacheManager.register("Playlist contents", cachedPlaylistContents, CacheManager.Priority.NORMAL);
+        cacheManager.register("Lyrics", cachedLyrics, CacheManager.Priority.NORMAL);
     }
 
     @Override
@@ -115,7 +186,7 @@ public class CachedMusicService implements MusicService {
         MusicDirectory dir = cache == null ? null : cache.get();
         if (dir == null) {
             dir = musicService.getMusicDirectory(id, refresh, context, progressListener);
-            cache = new TimeLimitedCache<MusicDirectory>(TTL_MUSIC_DIR, TimeUnit.SECONDS);
+            cache = new TimeLimitedCache<MusicDirectory>(TTL_MUSIC_DIR, TimeUnit.SECONDS, MUSIC_DIRECTORY_SIZER);
             cache.set(dir);
             cachedMusicDirectories.put(id, cache);
         }
@@ -124,17 +195,34 @@ public class CachedMusicService implements MusicService {
 
     @Override
     public SearchResult search(SearchCritera criteria, Context context, ProgressListener progressListener) throws Exception {
-        return musicService.search(criteria, context, progressListener);
+        checkSettingsChanged(context);
+        String key = criteria.getQuery() + "/" + criteria.getArtistCount() + "/" + criteria.getAlbumCount() + "/" + criteria.getSongCount();
+        SearchResult result = get(cachedSearchResults, key);
+        if (result == null) {
+            result = musicService.search(criteria, context, progressListener);
+            put(cachedSearchResults, key, result, TTL_SEARCH, SEARCH_RESULT_SIZER);
+        }
+        return result;
     }
 
     @Override
     public MusicDirectory getPlaylist(String id, String name, Context context, ProgressListener progressListener) throws Exception {
-        return musicService.getPlaylist(id, name, context, progressListener);
+        checkSettingsChanged(context);
+        String key = id + "/" + name;
+        MusicDirectory result = get(cachedPlaylistContents, key);
+        if (result == null) {
+            result = musicService.getPlaylist(id, name, context, progressListener);
+            put(cachedPlaylistContents, key, result, TTL_PLAYLIST, MUSIC_DIRECTORY_SIZER);
+        }
+        return result;
     }
 
     @Override
     public List<Playlist> getPlaylists(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
         checkSettingsChanged(context);
+        if (refresh) {
+            cachedPlaylistContents.clear();
+        }
         List<Playlist> result = refresh ? null : cachedPlaylists.get();
         if (result == null) {
             result = musicService.getPlaylists(refresh, context, progressListener);
@@ -146,11 +234,20 @@ public class CachedMusicService implements MusicService {
     @Override
     public void createPlaylist(String id, String name, List<MusicDirectory.Entry> entries, Context context, ProgressListener progressListener) throws Exception {
         musicService.createPlaylist(id, name, entries, context, progressListener);
+        cachedPlaylists.clear();
+        cachedPlaylistContents.clear();
     }
 
     @Override
     public Lyrics getLyrics(String artist, String title, Context context, ProgressListener progressListener) throws Exception {
-        return musicService.getLyrics(artist, title, context, progressListener);
+        checkSettingsChanged(context);
+        String key = artist + "/" + title;
+        Lyrics result = get(cachedLyrics, key);
+        if (result == null) {
+            result = musicService.getLyrics(artist, title, context, progressListener);
+            put(cachedLyrics, key, result, TTL_LYRICS, LYRICS_SIZER);
+        }
+        return result;
     }
 
     @Override
@@ -160,7 +257,14 @@ public class CachedMusicService implements MusicService {
 
     @Override
     public MusicDirectory getAlbumList(String type, int size, int offset, Context context, ProgressListener progressListener) throws Exception {
-        return musicService.getAlbumList(type, size, offset, context, progressListener);
+        checkSettingsChanged(context);
+        String key = type + "/" + size + "/" + offset;
+        MusicDirectory result = get(cachedAlbumLists, key);
+        if (result == null) {
+            result = musicService.getAlbumList(type, size, offset, context, progressListener);
+            put(cachedAlbumLists, key, result, "random".equals(type) ? TTL_ALBUM_LIST_RANDOM : TTL_ALBUM_LIST, MUSIC_DIRECTORY_SIZER);
+        }
+        return result;
     }
 
     @Override
@@ -170,7 +274,13 @@ public class CachedMusicService implements MusicService {
     
     @Override
     public SearchResult getStarred(Context context, ProgressListener progressListener) throws Exception {
-    	return musicService.getStarred(context, progressListener);
+        checkSettingsChanged(context);
+        SearchResult result = cachedStarred.get();
+        if (result == null) {
+            result = musicService.getStarred(context, progressListener);
+            cachedStarred.set(result);
+        }
+        return result;
     }
 
     @Override
@@ -183,6 +293,11 @@ public class CachedMusicService implements MusicService {
         return musicService.getDownloadInputStream(context, song, offset, maxBitrate, task);
     }
 
+    @Override
+    public HttpResponse getDownloadRangeInputStream(Context context, MusicDirectory.Entry song, long offset, long length, CancellableTask task) throws Exception {
+        return musicService.getDownloadRangeInputStream(context, song, offset, length, task);
+    }
+
     @Override
     public Version getLocalVersion(Context context) throws Exception {
         return musicService.getLocalVersion(context);
@@ -231,6 +346,9 @@ public class CachedMusicService implements MusicService {
 	@Override
 	public void setStarred(String id, boolean starred, Context context, ProgressListener progressListener) throws Exception {
 		musicService.setStarred(id, starred, context, progressListener);
+		cachedStarred.clear();
+		// The "starred" album list.
+		cachedAlbumLists.clear();
 	}
 
     private void checkSettingsChanged(Context context) {
@@ -241,7 +359,26 @@ public class CachedMusicService implements MusicService {
             cachedLicenseValid.clear();
             cachedIndexes.clear();
             cachedPlaylists.clear();
+            cachedStarred.clear();
+            cachedSearchResults.clear();
+            cachedAlbumLists.clear();
+            cachedPlaylistContents.clear();
+            cachedLyrics.clear();
             restUrl = newUrl;
         }
     }
+
+    private static <T> T get(LRUCache<String, TimeLimitedCache<T>> cache, String key) {
+        TimeLimitedCache<T> entry = cache.get(key);
+        return entry == null ? null : entry.get();
+    }
+
+    private static <T> void put(LRUCache<String, TimeLimitedCache<T>> cache, String key, T value, int ttl, CacheManager.Sizer<? super T> sizer) {
+        if (value == null) {
+            return;
+        }
+        TimeLimitedCache<T> entry = new TimeLimitedCache<T>(ttl, TimeUnit.SECONDS, sizer);
+        entry.set(value);
+        cache.put(key, entry);
+    }
 }
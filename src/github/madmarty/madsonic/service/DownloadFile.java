@@ -22,11 +22,24 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
-import android.util.DisplayMetrics;
 import android.util.Log;
 import github.madmarty.madsonic.domain.MusicDirectory;
 import github.madmarty.madsonic.util.CancellableTask;
@@ -36,6 +49,7 @@ import github.madmarty.madsonic.util.CacheCleaner;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 
 /**
  * @author Sindre Mehus
@@ -44,28 +58,71 @@ import org.apache.http.HttpStatus;
 public class DownloadFile {
 
     private static final String TAG = DownloadFile.class.getSimpleName();
+
+    // Bounds of the adaptive chunk size of the copy loop.
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 128 * 1024;
+    private static final int BUFFER_POOL_SIZE = 2;
+    private static final long LOG_INTERVAL_BYTES = 1024L * 1024L;
+
+    // How often the resume manifest is updated.
+    private static final long CHECKPOINT_INTERVAL_BYTES = 1024L * 1024L;
+
+    // Buffers for the copy loop, shared by all downloads.  They're heap buffers, since the source is a stream:
+    // a direct buffer would only make the stream's channel adapter allocate and copy a byte array per read.
+    private static final List<ByteBuffer> BUFFER_POOL = new ArrayList<ByteBuffer>();
+
+    // How often listeners hear about download progress.  By bytes rather than time, to keep the clock out of the copy loop.
+    private static final long STATUS_INTERVAL_BYTES = 256L * 1024L;
+
+    // Status listeners are called on the main thread.  The initial status is read from the file
+    // system on a background thread.
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final ExecutorService STATUS_READER = Executors.newSingleThreadExecutor();
+
+    // Files that have status listeners, in case their files are changed behind their back.
+    private static final Map<DownloadFile, Object> WATCHED = new WeakHashMap<DownloadFile, Object>();
+
+    // Running downloads by song id, so that the other download files of a song, e.g., when it's queued
+    // twice, can show the progress.
+    private static final Map<String, DownloadFile> DOWNLOADING = new HashMap<String, DownloadFile>();
+
     private final Context context;
     private final MusicDirectory.Entry song;
     private final File partialFile;
     private final File completeFile;
     private final File saveFile;
 
+    // Exists while the partial file is being filled in segments, i.e., not in order.
+    private final File segmentsFile;
+
     private final MediaStoreService mediaStoreService;
     private CancellableTask downloadTask;
+    private volatile SegmentedDownload segmentedDownload;
     private boolean save;
     private boolean failed;
     private int bitRate;
 
+    // The status, guarded by the listener list.  The state is null until it has been read.
+    private final List<WeakReference<StatusListener>> statusListeners = new ArrayList<WeakReference<StatusListener>>();
+    private final AtomicBoolean statusPosted = new AtomicBoolean();
+    private DownloadStatus.State state;
+    private long downloadedBytes;
+    private boolean playing;
+    private DownloadStatus status;
+
     public DownloadFile(Context context, MusicDirectory.Entry song, boolean save) {
         this.context = context;
         this.song = song;
         this.save = save;
         saveFile = FileUtil.getSongFile(context, song);
         bitRate = Util.getMaxBitrate(context);
+        // The bit rate is recorded in the resume manifest, so that a partial file with another one is restarted rather than orphaned.
         partialFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
-                "." + bitRate + ".partial." + FileUtil.getExtension(saveFile.getName()));
+                ".partial." + FileUtil.getExtension(saveFile.getName()));
         completeFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
                 ".complete." + FileUtil.getExtension(saveFile.getName()));
+        segmentsFile = new File(partialFile.getPath() + ".segments");
         mediaStoreService = new MediaStoreService(context);
     }
 
@@ -88,7 +145,8 @@ public class DownloadFile {
     }
 
     public synchronized void download() {
-        FileUtil.createDirectoryForParent(saveFile);
+        // The instance may be old, and the preference may have changed.  The resume manifest tells if it differs from the partial file.
+        bitRate = Util.getMaxBitrate(context);
         failed = false;
         downloadTask = new DownloadTask();
         downloadTask.start();
@@ -116,6 +174,36 @@ public class DownloadFile {
         return partialFile;
     }
 
+    /**
+     * Returns how many bytes of the partial file can be played.  That's the start of the file
+     * that has been received without gaps.
+     */
+    public long getPartialLength() {
+        SegmentedDownload download = segmentedDownload;
+        return download == null ? partialFile.length() : download.getContiguousLength();
+    }
+
+    /**
+     * Returns whether the partial file is being downloaded in segments.  It then has its full
+     * length already, and only {@link #getPartialLength()} bytes of it can be played.
+     */
+    public boolean isSegmented() {
+        return segmentedDownload != null;
+    }
+
+    /**
+     * Returns roughly which byte of the file is being played, or zero if this isn't the current song.
+     */
+    long getPlayHeadOffset() {
+        DownloadService downloadService = DownloadServiceImpl.getInstance();
+        Integer duration = song.getDuration();
+        Long size = song.getSize();
+        if (downloadService == null || downloadService.getCurrentPlaying() != this || duration == null || duration == 0 || size == null) {
+            return 0L;
+        }
+        return size * downloadService.getPlayerPosition() / (duration * 1000L);
+    }
+
     public boolean isSaved() {
         return saveFile.exists();
     }
@@ -140,6 +228,10 @@ public class DownloadFile {
         return save;
     }
 
+    void setSave(boolean save) {
+        this.save = save;
+    }
+
     public boolean isFailed() {
         return failed;
     }
@@ -147,21 +239,188 @@ public class DownloadFile {
     public void delete() {
         cancelDownload();
         Util.delete(partialFile);
+        Util.delete(segmentsFile);
+        ResumeManifest.delete(partialFile);
         Util.delete(completeFile);
         Util.delete(saveFile);
         mediaStoreService.deleteFromMediaStore(this);
+        setState(DownloadStatus.State.NOT_CACHED, 0L);
     }
 
     public void unpin() {
-        if (saveFile.exists()) {
-            saveFile.renameTo(completeFile);
+        if (saveFile.exists() && saveFile.renameTo(completeFile)) {
+            setState(DownloadStatus.State.COMPLETE, 0L);
+        }
+    }
+
+    /**
+     * Returns the current status, or {@code null} if it's not known yet.  It's known once a listener
+     * has been registered and notified.
+     */
+    public DownloadStatus getStatus() {
+        synchronized (statusListeners) {
+            return status;
+        }
+    }
+
+    /**
+     * Registers a listener for changes to the status.  Listeners are held by weak references, and
+     * called on the main thread.
+     */
+    public void addStatusListener(StatusListener listener) {
+        boolean read;
+        synchronized (statusListeners) {
+            statusListeners.add(new WeakReference<StatusListener>(listener));
+            read = state == null;
+        }
+        synchronized (WATCHED) {
+            WATCHED.put(this, null);
+        }
+        if (read) {
+            readStatus();
+        }
+    }
+
+    public void removeStatusListener(StatusListener listener) {
+        boolean empty;
+        synchronized (statusListeners) {
+            Iterator<WeakReference<StatusListener>> iterator = statusListeners.iterator();
+            while (iterator.hasNext()) {
+                StatusListener l = iterator.next().get();
+                if (l == null || l == listener) {
+                    iterator.remove();
+                }
+            }
+            empty = statusListeners.isEmpty();
+        }
+        if (empty) {
+            synchronized (WATCHED) {
+                WATCHED.remove(this);
+            }
         }
     }
 
+    /**
+     * Reads the status of all files that have listeners from the file system again, e.g., after the
+     * cache cleaner has deleted some of them.
+     */
+    public static void refreshStatuses() {
+        List<DownloadFile> downloadFiles;
+        synchronized (WATCHED) {
+            downloadFiles = new ArrayList<DownloadFile>(WATCHED.keySet());
+        }
+        for (DownloadFile downloadFile : downloadFiles) {
+            downloadFile.readStatus();
+        }
+    }
+
+    private void readStatus() {
+        STATUS_READER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (saveFile.exists()) {
+                    setState(DownloadStatus.State.SAVED, 0L);
+                } else if (completeFile.exists()) {
+                    setState(DownloadStatus.State.COMPLETE, 0L);
+                } else {
+                    DownloadFile downloading;
+                    synchronized (DOWNLOADING) {
+                        downloading = DOWNLOADING.get(song.getId());
+                    }
+                    if (downloading != null) {
+                        setState(DownloadStatus.State.DOWNLOADING, downloading.getPartialLength());
+                    } else {
+                        setState(DownloadStatus.State.NOT_CACHED, 0L);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether this is the song being played.  Unlike {@link #getStatus()}, this is known right away.
+     */
+    boolean isPlaying() {
+        synchronized (statusListeners) {
+            return playing;
+        }
+    }
+
+    void setPlaying(boolean playing) {
+        synchronized (statusListeners) {
+            this.playing = playing;
+            statusChanged();
+        }
+    }
+
+    void setDownloadedBytes(long bytes) {
+        setState(DownloadStatus.State.DOWNLOADING, bytes);
+    }
+
+    /**
+     * Sets the state of the song's files, for this and the other watched download files of the song, since
+     * they share the files.
+     */
+    private void setState(DownloadStatus.State state, long bytes) {
+        List<DownloadFile> siblings = new ArrayList<DownloadFile>();
+        synchronized (WATCHED) {
+            for (DownloadFile downloadFile : WATCHED.keySet()) {
+                if (downloadFile != this && downloadFile.song.getId().equals(song.getId())) {
+                    siblings.add(downloadFile);
+                }
+            }
+        }
+        applyState(state, bytes);
+        for (DownloadFile sibling : siblings) {
+            sibling.applyState(state, bytes);
+        }
+    }
+
+    private void applyState(DownloadStatus.State state, long bytes) {
+        synchronized (statusListeners) {
+            this.state = state;
+            downloadedBytes = bytes;
+            statusChanged();
+        }
+    }
+
+    // Must be called with the listener list locked.  Listeners are notified once for a burst of changes.
+    private void statusChanged() {
+        status = state == null ? null : new DownloadStatus(state, downloadedBytes, playing);
+        if (status == null || statusListeners.isEmpty() || !statusPosted.compareAndSet(false, true)) {
+            return;
+        }
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                statusPosted.set(false);
+                List<StatusListener> listeners = new ArrayList<StatusListener>();
+                DownloadStatus status;
+                synchronized (statusListeners) {
+                    status = DownloadFile.this.status;
+                    Iterator<WeakReference<StatusListener>> iterator = statusListeners.iterator();
+                    while (iterator.hasNext()) {
+                        StatusListener listener = iterator.next().get();
+                        if (listener == null) {
+                            iterator.remove();
+                        } else {
+                            listeners.add(listener);
+                        }
+                    }
+                }
+                for (StatusListener listener : listeners) {
+                    listener.onStatusChanged(DownloadFile.this, status);
+                }
+            }
+        });
+    }
+
     public boolean cleanup() {
         boolean ok = true;
         if (completeFile.exists() || saveFile.exists()) {
             ok = Util.delete(partialFile);
+            Util.delete(segmentsFile);
+            ResumeManifest.delete(partialFile);
         }
         if (saveFile.exists()) {
             ok &= Util.delete(completeFile);
@@ -190,6 +449,34 @@ public class DownloadFile {
         return "DownloadFile (" + song + ")";
     }
 
+    /**
+     * Closes the connection of the given response stream, without reading the rest of it.
+     */
+    private static void abort(InputStream in) throws IOException {
+        if (in instanceof ConnectionReleaseTrigger) {
+            ((ConnectionReleaseTrigger) in).abortConnection();
+        } else {
+            Util.close(in);
+        }
+    }
+
+    static ByteBuffer acquireBuffer() {
+        synchronized (BUFFER_POOL) {
+            if (!BUFFER_POOL.isEmpty()) {
+                return BUFFER_POOL.remove(BUFFER_POOL.size() - 1);
+            }
+        }
+        return ByteBuffer.allocate(MAX_CHUNK_SIZE);
+    }
+
+    static void releaseBuffer(ByteBuffer buffer) {
+        synchronized (BUFFER_POOL) {
+            if (BUFFER_POOL.size() < BUFFER_POOL_SIZE) {
+                BUFFER_POOL.add(buffer);
+            }
+        }
+    }
+
     private class DownloadTask extends CancellableTask {
 
         @Override
@@ -198,6 +485,9 @@ public class DownloadFile {
             InputStream in = null;
             FileOutputStream out = null;
             PowerManager.WakeLock wakeLock = null;
+            synchronized (DOWNLOADING) {
+                DOWNLOADING.put(song.getId(), DownloadFile.this);
+            }
             try {
 
                 if (Util.isScreenLitOnDownload(context)) {
@@ -207,34 +497,73 @@ public class DownloadFile {
                     Log.i(TAG, "Acquired wake lock " + wakeLock);
                 }
 
+                // Here rather than in download(), which is called with the download service locked.
+                FileUtil.createDirectoryForParent(saveFile);
+
                 if (saveFile.exists() && saveFile.length() == song.getSize()) {
                     Log.i(TAG, saveFile + " already exists. Skipping.");
+                    setState(DownloadStatus.State.SAVED, 0L);
                     return;
                 }
                 if (completeFile.exists() && completeFile.length() == song.getSize()) {
                     if (save) {
-                        Util.atomicCopy(completeFile, saveFile);
+                        Util.atomicMove(completeFile, saveFile);
+                        setState(DownloadStatus.State.SAVED, 0L);
                     } else {
                         Log.i(TAG, completeFile + " already exists. Skipping.");
+                        setState(DownloadStatus.State.COMPLETE, 0L);
                     }
                     return;
                 }
 
+                setDownloadedBytes(0L);
+
                 MusicService musicService = MusicServiceFactory.getMusicService(context);
 
-                // Attempt partial HTTP GET, appending to the file if it exists.
-                HttpResponse response = musicService.getDownloadInputStream(context, song, partialFile.length(), bitRate, DownloadTask.this);
-                in = response.getEntity().getContent();
-                boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
-                if (partial) {
-                    Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
+                if (segmentsFile.exists()) {
+                    // Left by an interrupted segmented download.  Its partial file has gaps, so it can't be resumed.
+                    Util.delete(partialFile);
+                    Util.delete(segmentsFile);
                 }
 
-                out = new FileOutputStream(partialFile, partial);
-                long n = copy(in, out);
-                Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
-                out.flush();
-                out.close();
+                boolean downloaded = false;
+                if (partialFile.length() == 0L && SegmentedDownload.isSupported(context, song, bitRate)) {
+                    downloaded = downloadSegmented(musicService);
+                }
+
+                if (!downloaded) {
+                    ResumeManifest manifest = ResumeManifest.load(partialFile);
+                    long offset = getResumeOffset(manifest);
+
+                    // Attempt partial HTTP GET.  It starts one block before the end of the file, to check
+                    // that the server resumes at the right place, e.g., that it isn't transcoding from the start.
+                    HttpResponse response = musicService.getDownloadInputStream(context, song, offset, bitRate, DownloadTask.this);
+                    in = response.getEntity().getContent();
+                    boolean partial = offset > 0L && response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+                    if (partial && !(manifest.matches(response) && manifest.verifyOverlap(in))) {
+                        Log.w(TAG, "Server did not resume " + song + " where expected. Starting over.");
+                        abort(in);
+                        response = musicService.getDownloadInputStream(context, song, 0L, bitRate, DownloadTask.this);
+                        in = response.getEntity().getContent();
+                        partial = false;
+                    }
+
+                    if (partial) {
+                        Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
+                    } else {
+                        manifest = ResumeManifest.create(partialFile, song, bitRate, response);
+                    }
+
+                    out = new FileOutputStream(partialFile, partial);
+                    long n = copy(in, out.getChannel(), manifest);
+                    Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
+                    out.flush();
+
+                    // Make sure the data is on disk before the file is renamed into place, or recorded as resumable.
+                    out.getFD().sync();
+                    out.close();
+                    manifest.checkpoint(partialFile);
+                }
 
                 if (isCancelled()) {
                     throw new Exception("Download of '" + song + "' was cancelled");
@@ -242,23 +571,34 @@ public class DownloadFile {
 
                 downloadAndSaveCoverArt(musicService);
 
+                ResumeManifest.delete(partialFile);
+
+                // The player may still have the partial file open.  That's fine, since renaming doesn't affect open files.
                 if (save) {
-                    Util.atomicCopy(partialFile, saveFile);
+                    Util.atomicMove(partialFile, saveFile);
+                    setState(DownloadStatus.State.SAVED, 0L);
                     mediaStoreService.saveInMediaStore(DownloadFile.this);
                 } else {
-                    Util.atomicCopy(partialFile, completeFile);
+                    Util.atomicMove(partialFile, completeFile);
+                    setState(DownloadStatus.State.COMPLETE, 0L);
                 }
 
             } catch (Exception x) {
                 Util.close(out);
                 Util.delete(completeFile);
                 Util.delete(saveFile);
+                setState(DownloadStatus.State.NOT_CACHED, 0L);
                 if (!isCancelled()) {
                     failed = true;
                     Log.w(TAG, "Failed to download '" + song + "'.", x);
                 }
 
             } finally {
+                synchronized (DOWNLOADING) {
+                    if (DOWNLOADING.get(song.getId()) == DownloadFile.this) {
+                        DOWNLOADING.remove(song.getId());
+                    }
+                }
                 Util.close(in);
                 Util.close(out);
                 if (wakeLock != null) {
@@ -274,54 +614,127 @@ public class DownloadFile {
             return "DownloadTask (" + song + ")";
         }
 
+        /**
+         * Downloads the file in parallel segments.
+         *
+         * @return Whether it was downloaded, or <code>false</code> if it should be downloaded sequentially instead.
+         */
+        private boolean downloadSegmented(MusicService musicService) throws Exception {
+            new FileOutputStream(segmentsFile).close();
+            SegmentedDownload download = new SegmentedDownload(context, musicService, DownloadFile.this, partialFile);
+            segmentedDownload = download;
+            boolean ok = false;
+            try {
+                ok = download.run(this);
+                if (!ok) {
+                    Log.i(TAG, "Downloading " + song + " sequentially instead.");
+                }
+                return ok;
+            } finally {
+                segmentedDownload = null;
+                if (!ok || isCancelled()) {
+                    Util.delete(partialFile);
+                }
+                Util.delete(segmentsFile);
+            }
+        }
+
+        /**
+         * Returns the offset to resume the download from, which is one block before the verified end
+         * of the partial file.  The partial file is truncated to that end, or deleted if it can't be trusted.
+         */
+        private long getResumeOffset(ResumeManifest manifest) throws IOException {
+            if (partialFile.length() == 0L) {
+                return 0L;
+            }
+            if (manifest != null && manifest.matches(song, bitRate) && manifest.verifyTail(partialFile)) {
+                RandomAccessFile raf = new RandomAccessFile(partialFile, "rw");
+                try {
+                    raf.setLength(manifest.getLength());
+                } finally {
+                    Util.close(raf);
+                }
+                return manifest.getLength() - ResumeManifest.BLOCK_SIZE;
+            }
+
+            Log.i(TAG, "Can't resume " + partialFile + ". Starting over.");
+            Util.delete(partialFile);
+            return 0L;
+        }
+
         private void downloadAndSaveCoverArt(MusicService musicService) throws Exception {
             try {
-                if (song.getCoverArt() != null) {
-                    DisplayMetrics metrics = context.getResources().getDisplayMetrics();
-                    int size = Math.min(metrics.widthPixels, metrics.heightPixels);
-                    musicService.getCoverArt(context, song, size, true, null);
+                // Usually saved already by the cover art prefetcher.
+                if (song.getCoverArt() != null && !FileUtil.getAlbumArtFile(context, song).exists()) {
+                    musicService.getCoverArt(context, song, Util.getSavedCoverArtSize(context), true, null);
                 }
             } catch (Exception x) {
                 Log.e(TAG, "Failed to get cover art.", x);
             }
         }
 
-        private long copy(final InputStream in, OutputStream out) throws IOException, InterruptedException {
-
-            // Start a thread that will close the input stream if the task is
-            // cancelled, thus causing the copy() method to return.
-            new Thread() {
-                @Override
-                public void run() {
-                    while (true) {
-                        Util.sleepQuietly(3000L);
-                        if (isCancelled()) {
-                            Util.close(in);
-                            return;
-                        }
-                        if (!isRunning()) {
-                            return;
-                        }
+        /**
+         * Copies the stream to the file.  Cancelling the task aborts the HTTP request, which makes
+         * a blocked read fail, so no watchdog is needed.
+         */
+        private long copy(InputStream in, FileChannel out, ResumeManifest manifest) throws IOException {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                int chunkSize = MIN_CHUNK_SIZE;
+                long count = 0;
+                long nextLog = LOG_INTERVAL_BYTES;
+                long nextCheckpoint = CHECKPOINT_INTERVAL_BYTES;
+
+                // Where a resumed download starts.
+                long offset = out.position();
+                long nextStatus = 0L;
+
+                while (!isCancelled()) {
+                    int n = in.read(buffer.array(), 0, chunkSize);
+                    if (n == -1) {
+                        break;
+                    }
+                    buffer.clear();
+                    buffer.limit(n);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    count += n;
+                    BandwidthShaper.throttle(context, DownloadFile.this, n, this);
+
+                    // Use larger chunks while reads fill them, and smaller ones when the connection is slow.
+                    if (n == chunkSize && chunkSize < MAX_CHUNK_SIZE) {
+                        chunkSize *= 2;
+                    } else if (n < chunkSize / 4 && chunkSize > MIN_CHUNK_SIZE) {
+                        chunkSize /= 2;
                     }
-                }
-            }.start();
-
-            byte[] buffer = new byte[1024 * 16];
-            long count = 0;
-            int n;
-            long lastLog = System.currentTimeMillis();
-
-            while (!isCancelled() && (n = in.read(buffer)) != -1) {
-                out.write(buffer, 0, n);
-                count += n;
 
-                long now = System.currentTimeMillis();
-                if (now - lastLog > 3000L) {  // Only every so often.
-                    Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
-                    lastLog = now;
+                    if (count >= nextLog) {
+                        Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
+                        nextLog += LOG_INTERVAL_BYTES;
+                    }
+                    if (count >= nextCheckpoint) {
+                        out.force(false);
+                        manifest.checkpoint(partialFile);
+                        nextCheckpoint += CHECKPOINT_INTERVAL_BYTES;
+                    }
+                    if (count >= nextStatus) {
+                        setDownloadedBytes(offset + count);
+                        nextStatus = count + STATUS_INTERVAL_BYTES;
+                    }
                 }
+                return count;
+            } finally {
+                releaseBuffer(buffer);
             }
-            return count;
         }
     }
+
+    public static interface StatusListener {
+
+        /**
+         * Invoked on the main thread when the status of the given file has changed.
+         */
+        void onStatusChanged(DownloadFile downloadFile, DownloadStatus status);
+    }
 }
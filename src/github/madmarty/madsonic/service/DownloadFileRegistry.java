@@ -0,0 +1,162 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import github.madmarty.madsonic.domain.MusicDirectory;
+
+/**
+ * Finds the {@link DownloadFile} of a song by its id in constant time.  Songs in the download
+ * queues map to their queue entries.  Other songs get a download file that stays the same for
+ * as long as it is referenced, so that all views of a song see the same state.
+ * <p/>
+ * Thread-safe, with a lock of its own, so that views can look up songs without waiting for the
+ * download service.
+ *
+ * @author Sindre Mehus
+ */
+public class DownloadFileRegistry {
+
+    // Queue entries by song id, in the order they were added.  Usually one per song.
+    private final Map<String, List<DownloadFile>> queued = new HashMap<String, List<DownloadFile>>();
+
+    // Download files of songs that are not queued, for as long as they are in use.
+    private final Map<String, Reference> unqueued = new HashMap<String, Reference>();
+    private final ReferenceQueue<DownloadFile> referenceQueue = new ReferenceQueue<DownloadFile>();
+
+    /**
+     * Returns a download file for adding the given song to a queue.  It's the one that is already
+     * in use for the song, unless the song is queued already, since each queue entry needs its own.
+     */
+    public synchronized DownloadFile obtain(Context context, MusicDirectory.Entry song, boolean save) {
+        if (!queued.containsKey(song.getId())) {
+            DownloadFile downloadFile = getUnqueued(song.getId());
+            if (downloadFile != null) {
+                if (save) {
+                    downloadFile.setSave(true);
+                }
+                return downloadFile;
+            }
+        }
+        return new DownloadFile(context, song, save);
+    }
+
+    /**
+     * Returns the download file of the given song, creating one if needed.
+     */
+    public synchronized DownloadFile get(Context context, MusicDirectory.Entry song) {
+        List<DownloadFile> entries = queued.get(song.getId());
+        if (entries != null) {
+            return entries.get(0);
+        }
+
+        DownloadFile downloadFile = getUnqueued(song.getId());
+        if (downloadFile == null) {
+            downloadFile = new DownloadFile(context, song, false);
+            unqueued.put(song.getId(), new Reference(downloadFile, referenceQueue));
+        }
+        return downloadFile;
+    }
+
+    /**
+     * Registers a download file that has been added to a queue.
+     */
+    public synchronized void add(DownloadFile downloadFile) {
+        String id = downloadFile.getSong().getId();
+        List<DownloadFile> entries = queued.get(id);
+        if (entries == null) {
+            entries = new ArrayList<DownloadFile>(1);
+            queued.put(id, entries);
+            unqueued.remove(id);
+        }
+        entries.add(downloadFile);
+    }
+
+    public synchronized void addAll(Collection<DownloadFile> downloadFiles) {
+        for (DownloadFile downloadFile : downloadFiles) {
+            add(downloadFile);
+        }
+    }
+
+    /**
+     * Unregisters a download file that has been removed from a queue.  It is kept for lookups for
+     * as long as it is in use.
+     */
+    public synchronized void remove(DownloadFile downloadFile) {
+        String id = downloadFile.getSong().getId();
+        List<DownloadFile> entries = queued.get(id);
+        if (entries == null || !removeEntry(entries, downloadFile)) {
+            return;
+        }
+        if (entries.isEmpty()) {
+            queued.remove(id);
+            purge();
+            unqueued.put(id, new Reference(downloadFile, referenceQueue));
+        }
+    }
+
+    public synchronized void removeAll(Collection<DownloadFile> downloadFiles) {
+        for (DownloadFile downloadFile : downloadFiles) {
+            remove(downloadFile);
+        }
+    }
+
+    private DownloadFile getUnqueued(String id) {
+        purge();
+        Reference reference = unqueued.get(id);
+        return reference == null ? null : reference.get();
+    }
+
+    // By identity, since a song may be queued more than once.
+    private static boolean removeEntry(List<DownloadFile> entries, DownloadFile downloadFile) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) == downloadFile) {
+                entries.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void purge() {
+        Reference reference;
+        while ((reference = (Reference) referenceQueue.poll()) != null) {
+            if (unqueued.get(reference.id) == reference) {
+                unqueued.remove(reference.id);
+            }
+        }
+    }
+
+    private static class Reference extends WeakReference<DownloadFile> {
+        private final String id;
+
+        Reference(DownloadFile downloadFile, ReferenceQueue<DownloadFile> queue) {
+            super(downloadFile, queue);
+            id = downloadFile.getSong().getId();
+        }
+    }
+}
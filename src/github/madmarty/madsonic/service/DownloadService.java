@@ -97,6 +97,19 @@ public interface DownloadService {
 
     long getDownloadListUpdateRevision();
 
+    /**
+     * Returns the download list, both queues, with its revision.  The snapshot is read-only and
+     * doesn't change, so it can be used without holding any lock.
+     */
+    PlayQueue.Snapshot getDownloadQueueSnapshot();
+
+    /**
+     * Registers a listener for new snapshots of the download list.
+     */
+    void addQueueListener(QueueListener listener);
+
+    void removeQueueListener(QueueListener listener);
+
     void setSuggestedPlaylistName(String name);
 
     String getSuggestedPlaylistName();
@@ -110,4 +123,14 @@ public interface DownloadService {
     void setJukeboxEnabled(boolean b);
 
     void adjustJukeboxVolume(boolean up);
+
+    public static interface QueueListener {
+
+        /**
+         * Invoked on the main thread with each new snapshot, in order, when the download list or
+         * the current song changes.  The snapshot's diff tells what changed since the previous one,
+         * which may have been published before the listener was registered.
+         */
+        void onQueueChanged(PlayQueue.Snapshot snapshot);
+    }
 }
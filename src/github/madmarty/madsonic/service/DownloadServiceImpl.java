@@ -41,16 +41,20 @@ import github.madmarty.madsonic.domain.PlayerState;
 import github.madmarty.madsonic.domain.RepeatMode;
 import github.madmarty.madsonic.receiver.MediaButtonIntentReceiver;
 import github.madmarty.madsonic.util.CancellableTask;
-import github.madmarty.madsonic.util.LRUCache;
 import github.madmarty.madsonic.util.ShufflePlayBuffer;
 import github.madmarty.madsonic.util.SimpleServiceBinder;
 import github.madmarty.madsonic.util.Util;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static github.madmarty.madsonic.domain.PlayerState.*;
 import github.madmarty.madsonic.util.*;
@@ -72,26 +76,37 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 
     
     private RemoteControlClient mRemoteControlClient;
-    private ImageLoader imageLoader;
     
     private final IBinder binder = new SimpleServiceBinder<DownloadService>(this);
+
+    // Locking: the service's own monitor guards the queue, and playerLock guards the media player and
+    // the player state.  The queue lock may be held while taking playerLock, but not the other way
+    // around.  Neither is held while the player prepares or while files are written.  The UI reads the
+    // queue from the published snapshot, without locking.
+    private final Object playerLock = new Object();
     private MediaPlayer mediaPlayer;
-    private final List<DownloadFile> downloadList = new ArrayList<DownloadFile>();
+    private final PlayQueue<DownloadFile> downloadList = new PlayQueue<DownloadFile>();
 	private final List<DownloadFile> backgroundDownloadList = new ArrayList<DownloadFile>();
     private final Handler handler = new Handler();
     private final DownloadServiceLifecycleSupport lifecycleSupport = new DownloadServiceLifecycleSupport(this);
     private final ShufflePlayBuffer shufflePlayBuffer = new ShufflePlayBuffer(this);
+    private final CoverArtPrefetcher coverArtPrefetcher = new CoverArtPrefetcher(this);
+
 
-    private final LRUCache<MusicDirectory.Entry, DownloadFile> downloadFileCache = new LRUCache<MusicDirectory.Entry, DownloadFile>(100);
+    // Index of downloadList and backgroundDownloadList by song id, which must be kept in sync with them.
+    private final DownloadFileRegistry downloadFileRegistry = new DownloadFileRegistry();
     private final List<DownloadFile> cleanupCandidates = new ArrayList<DownloadFile>();
     private final Scrobbler scrobbler = new Scrobbler();
     private final JukeboxService jukeboxService = new JukeboxService(this);
-    private DownloadFile currentPlaying;
-    private DownloadFile currentDownloading;
+    private volatile DownloadFile currentPlaying;
+    private volatile DownloadFile currentDownloading;
     private CancellableTask bufferTask;
-    private PlayerState playerState = IDLE;
-    private boolean shufflePlay;
+    private volatile PlayerState playerState = IDLE;
+    private int playerGeneration;
+    private volatile boolean shufflePlay;
     private long revision;
+    private volatile PlayQueue.Snapshot snapshot = new PlayQueue.Snapshot(0L, downloadList, backgroundDownloadList, -1, null);
+    private final List<QueueListener> queueListeners = new CopyOnWriteArrayList<QueueListener>();
     private static DownloadService instance;
     private String suggestedPlaylistName;
     private PowerManager.WakeLock wakeLock;
@@ -102,7 +117,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     private EqualizerController equalizerController;
     private VisualizerController visualizerController;
     private boolean showVisualization;
-    private boolean jukeboxEnabled;
+    private volatile boolean jukeboxEnabled;
 
     static {
         try {
@@ -125,8 +140,6 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 	@Override
     public void onCreate() {
         super.onCreate();
-        
-        imageLoader = new ImageLoader(this);
 
         mediaPlayer = new MediaPlayer();
         mediaPlayer.setWakeMode(this, PowerManager.PARTIAL_WAKE_LOCK);
@@ -134,7 +147,9 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         mediaPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
             @Override
             public boolean onError(MediaPlayer mediaPlayer, int what, int more) {
-                handleError(new Exception("MediaPlayer error: " + what + " (" + more + ")"));
+                synchronized (playerLock) {
+                    handleError(new Exception("MediaPlayer error: " + what + " (" + more + ")"));
+                }
                 return false;
             }
         });
@@ -210,6 +225,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         lifecycleSupport.onDestroy();
         mediaPlayer.release();
         shufflePlayBuffer.shutdown();
+        coverArtPrefetcher.shutdown();
         if (equalizerController != null) {
             equalizerController.release();
         }
@@ -220,6 +236,18 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         instance = null;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CacheManager.getInstance().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        CacheManager.getInstance().onLowMemory();
+    }
+
     public static DownloadService getInstance() {
         return instance;
     }
@@ -238,21 +266,23 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             return;
         }
         if (playNext) {
-            if (autoplay && getCurrentPlayingIndex() >= 0) {
+            if (autoplay && downloadList.getCurrentIndex() >= 0) {
                 offset = 0;
             }
             for (MusicDirectory.Entry song : songs) {
-                DownloadFile downloadFile = new DownloadFile(this, song, save);
-                downloadList.add(getCurrentPlayingIndex() + offset, downloadFile);
+                DownloadFile downloadFile = downloadFileRegistry.obtain(this, song, save);
+                downloadList.add(downloadList.getCurrentIndex() + offset, downloadFile);
+                downloadFileRegistry.add(downloadFile);
                 offset++;
             }
-            revision++;
+            queueChanged();
         } else {
             for (MusicDirectory.Entry song : songs) {
-                DownloadFile downloadFile = new DownloadFile(this, song, save);
+                DownloadFile downloadFile = downloadFileRegistry.obtain(this, song, save);
                 downloadList.add(downloadFile);
+                downloadFileRegistry.add(downloadFile);
             }
-            revision++;
+            queueChanged();
         }
         updateJukeboxPlaylist();
 		
@@ -264,18 +294,23 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         } else {
             if (currentPlaying == null) {
                 currentPlaying = downloadList.get(0);
+                currentPlaying.setPlaying(true);
+                downloadList.setCurrent(currentPlaying);
+                publishSnapshot();
             }
-            checkDownloads();
+            lifecycleSupport.requestDownloadCheck();
         }
         lifecycleSupport.serializeDownloadQueue();
     }
 	public synchronized void downloadBackground(List<MusicDirectory.Entry> songs, boolean save) {
 		for (MusicDirectory.Entry song : songs) {
-			DownloadFile downloadFile = new DownloadFile(this, song, save);
+			DownloadFile downloadFile = downloadFileRegistry.obtain(this, song, save);
 			backgroundDownloadList.add(downloadFile);
+			downloadFileRegistry.add(downloadFile);
 		}
+		queueChanged();
 		
-		checkDownloads();
+		lifecycleSupport.requestDownloadCheck();
 		lifecycleSupport.serializeDownloadQueue();
 	}
 
@@ -304,23 +339,26 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         shufflePlay = enabled;
         if (shufflePlay) {
             clear();
-            checkDownloads();
+            lifecycleSupport.requestDownloadCheck();
         }
     }
 
     @Override
-    public synchronized boolean isShufflePlayEnabled() {
+    public boolean isShufflePlayEnabled() {
         return shufflePlay;
     }
 
     @Override
     public synchronized void shuffle() {
-        Collections.shuffle(downloadList);
-        if (currentPlaying != null) {
-            downloadList.remove(getCurrentPlayingIndex());
-            downloadList.add(0, currentPlaying);
+        List<DownloadFile> shuffled = new ArrayList<DownloadFile>(downloadList);
+        Collections.shuffle(shuffled);
+        if (currentPlaying != null && shuffled.remove(currentPlaying)) {
+            shuffled.add(0, currentPlaying);
         }
-        revision++;
+        downloadList.clear();
+        downloadList.addAll(shuffled);
+        downloadList.setCurrent(currentPlaying);
+        queueChanged();
         lifecycleSupport.serializeDownloadQueue();
         updateJukeboxPlaylist();
     }
@@ -355,20 +393,10 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         this.showVisualization = showVisualization;
     }
 
+    // Not synchronized, since it's called when binding list rows.  The registry has its own lock.
     @Override
-    public synchronized DownloadFile forSong(MusicDirectory.Entry song) {
-        for (DownloadFile downloadFile : downloadList) {
-            if (downloadFile.getSong().equals(song)) {
-                return downloadFile;
-            }
-        }
-
-        DownloadFile downloadFile = downloadFileCache.get(song);
-        if (downloadFile == null) {
-            downloadFile = new DownloadFile(this, song, false);
-            downloadFileCache.put(song, downloadFile);
-        }
-        return downloadFile;
+    public DownloadFile forSong(MusicDirectory.Entry song) {
+        return downloadFileRegistry.get(this, song);
     }
 
     @Override
@@ -377,28 +405,39 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     @Override
-    public synchronized void clearIncomplete() {
-        reset();
-        Iterator<DownloadFile> iterator = downloadList.iterator();
-        while (iterator.hasNext()) {
-            DownloadFile downloadFile = iterator.next();
+    public void clearIncomplete() {
+        // Check the files without holding the lock.  Songs queued in the meantime are kept.
+        PlayQueue.Snapshot snapshot = this.snapshot;
+        List<DownloadFile> incomplete = new ArrayList<DownloadFile>();
+        for (DownloadFile downloadFile : snapshot.getDownloads().subList(0, snapshot.getQueueSize())) {
             if (!downloadFile.isCompleteFileAvailable()) {
-                iterator.remove();
+                incomplete.add(downloadFile);
             }
         }
-        lifecycleSupport.serializeDownloadQueue();
-        updateJukeboxPlaylist();
+
+        synchronized (this) {
+            reset();
+            for (DownloadFile downloadFile : incomplete) {
+                if (downloadList.remove(downloadFile)) {
+                    downloadFileRegistry.remove(downloadFile);
+                }
+            }
+            queueChanged();
+            lifecycleSupport.serializeDownloadQueue();
+            updateJukeboxPlaylist();
+        }
     }
 
     @Override
-    public synchronized int size() {
-        return downloadList.size();
+    public int size() {
+        return snapshot.getQueueSize();
     }
 
     public synchronized void clear(boolean serialize) {
         reset();
+        downloadFileRegistry.removeAll(downloadList);
         downloadList.clear();
-        revision++;
+        queueChanged();
         if (currentDownloading != null) {
             currentDownloading.cancelDownload();
             currentDownloading = null;
@@ -421,21 +460,25 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             reset();
             setCurrentPlaying(null, false);
         }
-        downloadList.remove(downloadFile);
-        revision++;
+        if (downloadList.remove(downloadFile)) {
+            downloadFileRegistry.remove(downloadFile);
+        }
+        queueChanged();
         lifecycleSupport.serializeDownloadQueue();
         updateJukeboxPlaylist();
     }
 
+    // Not synchronized, since deleting is disk work and forSong doesn't need the lock.
     @Override
-    public synchronized void delete(List<MusicDirectory.Entry> songs) {
+    public void delete(List<MusicDirectory.Entry> songs) {
         for (MusicDirectory.Entry song : songs) {
             forSong(song).delete();
         }
     }
 
+    // Not synchronized, for the same reason as delete.
     @Override
-    public synchronized void unpin(List<MusicDirectory.Entry> songs) {
+    public void unpin(List<MusicDirectory.Entry> songs) {
         for (MusicDirectory.Entry song : songs) {
             forSong(song).unpin();
         }
@@ -451,7 +494,17 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 
     @TargetApi(14)
 	synchronized void setCurrentPlaying(DownloadFile currentPlaying, boolean showNotification) {
+        if (this.currentPlaying != currentPlaying) {
+            if (this.currentPlaying != null) {
+                this.currentPlaying.setPlaying(false);
+            }
+            if (currentPlaying != null) {
+                currentPlaying.setPlaying(true);
+            }
+        }
         this.currentPlaying = currentPlaying;
+        downloadList.setCurrent(currentPlaying);
+        publishSnapshot();
 
         if (currentPlaying != null) {
         	Util.requestAudioFocus(this);
@@ -480,14 +533,14 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             	.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, null)
             	.apply();
         	} else {
-        		imageLoader.loadImage(this, mRemoteControlClient, currentSong);
+        		NowPlayingArtwork.getInstance().loadLockScreenBitmap(this, mRemoteControlClient, currentSong);
         	}
         }
     }
 
     @Override
-    public synchronized int getCurrentPlayingIndex() {
-        return downloadList.indexOf(currentPlaying);
+    public int getCurrentPlayingIndex() {
+        return snapshot.getCurrentIndex();
     }
 
     @Override
@@ -501,17 +554,14 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     @Override
-    public synchronized List<DownloadFile> getDownloads() {
-		List<DownloadFile> temp = new ArrayList<DownloadFile>();
-		temp.addAll(downloadList);
-		temp.addAll(backgroundDownloadList);
-        return temp;
+    public List<DownloadFile> getDownloads() {
+        return snapshot.getDownloads();
     }
 
     /** Plays either the current song (resume) or the first/next one in queue. */
     public synchronized void play()
     {
-        int current = getCurrentPlayingIndex();
+        int current = downloadList.getCurrentIndex();
         if (current == -1) {
             play(0);
         } else {
@@ -525,15 +575,15 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     private synchronized void play(int index, boolean start) {
-        if (index < 0 || index >= size()) {
+        if (index < 0 || index >= downloadList.size()) {
             reset();
             setCurrentPlaying(null, false);
         } else {
             setCurrentPlaying(index, start);
-            checkDownloads();
+            lifecycleSupport.requestDownloadCheck();
             if (start) {
                 if (jukeboxEnabled) {
-                    jukeboxService.skip(getCurrentPlayingIndex(), 0);
+                    jukeboxService.skip(downloadList.getCurrentIndex(), 0);
                     setPlayerState(STARTED);
                 } else {
                     bufferAndPlay();
@@ -543,7 +593,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     /** Plays or resumes the playback, depending on the current player state. */
-    public synchronized void togglePlayPause()
+    public void togglePlayPause()
     {
         if (playerState == PAUSED || playerState == COMPLETED) {
             start();
@@ -555,21 +605,23 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     @Override
-    public synchronized void seekTo(int position) {
-        try {
-            if (jukeboxEnabled) {
-                jukeboxService.skip(getCurrentPlayingIndex(), position / 1000);
-            } else {
-                mediaPlayer.seekTo(position);
+    public void seekTo(int position) {
+        synchronized (playerLock) {
+            try {
+                if (jukeboxEnabled) {
+                    jukeboxService.skip(getCurrentPlayingIndex(), position / 1000);
+                } else {
+                    mediaPlayer.seekTo(position);
+                }
+            } catch (Exception x) {
+                handleError(x);
             }
-        } catch (Exception x) {
-            handleError(x);
         }
     }
 
     @Override
     public synchronized void previous() {
-        int index = getCurrentPlayingIndex();
+        int index = downloadList.getCurrentIndex();
         if (index == -1) {
             return;
         }
@@ -584,21 +636,21 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 
     @Override
     public synchronized void next() {
-        int index = getCurrentPlayingIndex();
+        int index = downloadList.getCurrentIndex();
         if (index != -1) {
             play(index + 1);
         }
     }
 
-    private void onSongCompleted() {
-        int index = getCurrentPlayingIndex();
+    private synchronized void onSongCompleted() {
+        int index = downloadList.getCurrentIndex();
         if (index != -1) {
             switch (getRepeatMode()) {
                 case OFF:
                     play(index + 1);
                     break;
                 case ALL:
-                    play((index + 1) % size());
+                    play((index + 1) % downloadList.size());
                     break;
                 case SINGLE:
                     play(index);
@@ -610,32 +662,36 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     @Override
-    public synchronized void pause() {
-        try {
-            if (playerState == STARTED) {
-                if (jukeboxEnabled) {
-                    jukeboxService.stop();
-                } else {
-                    mediaPlayer.pause();
+    public void pause() {
+        synchronized (playerLock) {
+            try {
+                if (playerState == STARTED) {
+                    if (jukeboxEnabled) {
+                        jukeboxService.stop();
+                    } else {
+                        mediaPlayer.pause();
+                    }
+                    setPlayerState(PAUSED);
                 }
-                setPlayerState(PAUSED);
+            } catch (Exception x) {
+                handleError(x);
             }
-        } catch (Exception x) {
-            handleError(x);
         }
     }
 
     @Override
-    public synchronized void start() {
-        try {
-            if (jukeboxEnabled) {
-                jukeboxService.start();
-            } else {
-                mediaPlayer.start();
+    public void start() {
+        synchronized (playerLock) {
+            try {
+                if (jukeboxEnabled) {
+                    jukeboxService.start();
+                } else {
+                    mediaPlayer.start();
+                }
+                setPlayerState(STARTED);
+            } catch (Exception x) {
+                handleError(x);
             }
-            setPlayerState(STARTED);
-        } catch (Exception x) {
-            handleError(x);
         }
     }
 
@@ -644,44 +700,54 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         if (bufferTask != null) {
             bufferTask.cancel();
         }
-        try {
-            mediaPlayer.reset();
-            setPlayerState(IDLE);
-        } catch (Exception x) {
-            handleError(x);
+        synchronized (playerLock) {
+
+            // Also cancels a pending prepare.
+            playerGeneration++;
+            try {
+                mediaPlayer.reset();
+                setPlayerState(IDLE);
+            } catch (Exception x) {
+                handleError(x);
+            }
         }
     }
 
     @Override
-    public synchronized int getPlayerPosition() {
-        try {
-            if (playerState == IDLE || playerState == DOWNLOADING || playerState == PREPARING) {
+    public int getPlayerPosition() {
+        synchronized (playerLock) {
+            try {
+                if (playerState == IDLE || playerState == DOWNLOADING || playerState == PREPARING) {
+                    return 0;
+                }
+                if (jukeboxEnabled) {
+                    return jukeboxService.getPositionSeconds() * 1000;
+                } else {
+                    return mediaPlayer.getCurrentPosition();
+                }
+            } catch (Exception x) {
+                handleError(x);
                 return 0;
             }
-            if (jukeboxEnabled) {
-                return jukeboxService.getPositionSeconds() * 1000;
-            } else {
-                return mediaPlayer.getCurrentPosition();
-            }
-        } catch (Exception x) {
-            handleError(x);
-            return 0;
         }
     }
 
     @Override
-    public synchronized int getPlayerDuration() {
+    public int getPlayerDuration() {
+        DownloadFile currentPlaying = this.currentPlaying;
         if (currentPlaying != null) {
             Integer duration = currentPlaying.getSong().getDuration();
             if (duration != null) {
                 return duration * 1000;
             }
         }
-        if (playerState != IDLE && playerState != DOWNLOADING && playerState != PlayerState.PREPARING) {
-            try {
-                return mediaPlayer.getDuration();
-            } catch (Exception x) {
-                handleError(x);
+        synchronized (playerLock) {
+            if (playerState != IDLE && playerState != DOWNLOADING && playerState != PlayerState.PREPARING) {
+                try {
+                    return mediaPlayer.getDuration();
+                } catch (Exception x) {
+                    handleError(x);
+                }
             }
         }
         return 0;
@@ -692,8 +758,14 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         return playerState;
     }
 
+    void setPlayerState(PlayerState playerState) {
+        synchronized (playerLock) {
+            doSetPlayerState(playerState);
+        }
+    }
+
     @TargetApi(14)
-	synchronized void setPlayerState(PlayerState playerState) {
+    private void doSetPlayerState(PlayerState playerState) {
         Log.i(TAG, this.playerState.name() + " -> " + playerState.name() + " (" + currentPlaying + ")");
 
         if (playerState == PAUSED) {
@@ -719,6 +791,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             scrobbler.scrobble(this, currentPlaying, false);
         } else if (playerState == COMPLETED) {
             scrobbler.scrobble(this, currentPlaying, true);
+            OfflineCatalog.getInstance(this).recordPlay(currentPlaying.getCompleteFile());
         }
     }
 
@@ -773,96 +846,177 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         bufferTask.start();
     }
 
-    private synchronized void doPlay(final DownloadFile downloadFile, int position, boolean start) {
+    /**
+     * Starts preparing the player for the given file.  Preparing reads the file and may take a while,
+     * so it's done asynchronously, and the player is started from {@link #onPrepared} when it's done.
+     */
+    private void doPlay(final DownloadFile downloadFile, final int position, final boolean start) {
 		// TODO: Start play at curr pos on rebuffer instead of restart
-        try {
-            final File file = downloadFile.isCompleteFileAvailable() ? downloadFile.getCompleteFile() : downloadFile.getPartialFile();
-            downloadFile.updateModificationDate();
-            mediaPlayer.setOnCompletionListener(null);
-            mediaPlayer.reset();
-            setPlayerState(IDLE);
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mediaPlayer.setDataSource(file.getPath());
-            setPlayerState(PREPARING);
-            mediaPlayer.prepare();
-            setPlayerState(PREPARED);
-
-            mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mediaPlayer) {
-
-                    // Acquire a temporary wakelock, since when we return from
-                    // this callback the MediaPlayer will release its wakelock
-                    // and allow the device to go to sleep.
-                    wakeLock.acquire(60000);
-
-                    setPlayerState(COMPLETED);
-
-                    // If COMPLETED and not playing partial file, we are *really" finished
-                    // with the song and can move on to the next.
-                    if (!file.equals(downloadFile.getPartialFile())) {
-                        onSongCompleted();
-                        return;
-                    }
-
-                    // If file is not completely downloaded, restart the playback from the current position.
-                    int pos = mediaPlayer.getCurrentPosition();
-                    synchronized (DownloadServiceImpl.this) {
-
-                        // Work-around for apparent bug on certain phones: If close (less than ten seconds) to the end
-                        // of the song, skip to the next rather than restarting it.
-                        Integer duration = downloadFile.getSong().getDuration() == null ? null : downloadFile.getSong().getDuration() * 1000;
-                        if (duration != null) {
-                            if (Math.abs(duration - pos) < 10000) {
-                                Log.i(TAG, "Skipping restart from " + pos  + " of " + duration);
-                                onSongCompleted();
-                                return;
-                            }
-                        }
+        File chosen = downloadFile.isCompleteFileAvailable() ? downloadFile.getCompleteFile() : downloadFile.getPartialFile();
+        downloadFile.updateModificationDate();
 
-                        Log.i(TAG, "Requesting restart from " + pos  + " of " + duration);
-                        reset();
-                        bufferTask = new BufferTask(downloadFile, pos);
-                        bufferTask.start();
+        synchronized (playerLock) {
+            try {
+                final int generation = ++playerGeneration;
+                mediaPlayer.setOnCompletionListener(null);
+                mediaPlayer.reset();
+                setPlayerState(IDLE);
+                mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                try {
+                    setDataSource(downloadFile, chosen);
+                } catch (IOException x) {
+                    // The download may have finished and renamed the partial file since it was chosen.
+                    if (!chosen.equals(downloadFile.getPartialFile()) || !downloadFile.isCompleteFileAvailable()) {
+                        throw x;
                     }
+                    Log.i(TAG, "Partial file of " + downloadFile.getSong() + " is gone, playing the complete file.");
+                    chosen = downloadFile.getCompleteFile();
+                    mediaPlayer.reset();
+                    mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                    setDataSource(downloadFile, chosen);
                 }
-            });
+                final File file = chosen;
+                setPlayerState(PREPARING);
+                mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+                    @Override
+                    public void onPrepared(MediaPlayer mediaPlayer) {
+                        DownloadServiceImpl.this.onPrepared(generation, downloadFile, file, position, start);
+                    }
+                });
+                mediaPlayer.prepareAsync();
+            } catch (Exception x) {
+                handleError(x);
+            }
+        }
+    }
 
-            if (position != 0) {
-                Log.i(TAG, "Restarting player from position " + position);
-                mediaPlayer.seekTo(position);
+    // Must be called with playerLock held.
+    private void setDataSource(DownloadFile downloadFile, File file) throws IOException {
+        if (downloadFile.isSegmented() && file.equals(downloadFile.getPartialFile())) {
+            // The file already has its full length, so tell the player where the gaps start.
+            FileInputStream in = new FileInputStream(file);
+            try {
+                mediaPlayer.setDataSource(in.getFD(), 0L, downloadFile.getPartialLength());
+            } finally {
+                Util.close(in);
             }
+        } else {
+            mediaPlayer.setDataSource(file.getPath());
+        }
+    }
 
-            if (start) {
-                mediaPlayer.start();
-                setPlayerState(STARTED);
-            } else {
-                setPlayerState(PAUSED);
+    private void onPrepared(int generation, final DownloadFile downloadFile, final File file, int position, boolean start) {
+        synchronized (playerLock) {
+
+            // Ignore it if the player was reset or given another file in the meantime.
+            if (generation != playerGeneration) {
+                return;
             }
-            lifecycleSupport.serializeDownloadQueue();
+            try {
+                setPlayerState(PREPARED);
+
+                mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+                    @Override
+                    public void onCompletion(MediaPlayer mediaPlayer) {
+
+                        // Acquire a temporary wakelock, since when we return from
+                        // this callback the MediaPlayer will release its wakelock
+                        // and allow the device to go to sleep.
+                        wakeLock.acquire(60000);
 
-        } catch (Exception x) {
-            handleError(x);
+                        setPlayerState(COMPLETED);
+
+                        // If COMPLETED and not playing partial file, we are *really" finished
+                        // with the song and can move on to the next.
+                        if (!file.equals(downloadFile.getPartialFile())) {
+                            onSongCompleted();
+                            return;
+                        }
+
+                        // If file is not completely downloaded, restart the playback from the current position.
+                        int pos = mediaPlayer.getCurrentPosition();
+                        synchronized (DownloadServiceImpl.this) {
+
+                            // Work-around for apparent bug on certain phones: If close (less than ten seconds) to the end
+                            // of the song, skip to the next rather than restarting it.
+                            Integer duration = downloadFile.getSong().getDuration() == null ? null : downloadFile.getSong().getDuration() * 1000;
+                            if (duration != null) {
+                                if (Math.abs(duration - pos) < 10000) {
+                                    Log.i(TAG, "Skipping restart from " + pos  + " of " + duration);
+                                    onSongCompleted();
+                                    return;
+                                }
+                            }
+
+                            Log.i(TAG, "Requesting restart from " + pos  + " of " + duration);
+                            reset();
+                            bufferTask = new BufferTask(downloadFile, pos);
+                            bufferTask.start();
+                        }
+                    }
+                });
+
+                if (position != 0) {
+                    Log.i(TAG, "Restarting player from position " + position);
+                    mediaPlayer.seekTo(position);
+                }
+
+                if (start) {
+                    mediaPlayer.start();
+                    setPlayerState(STARTED);
+                } else {
+                    setPlayerState(PAUSED);
+                }
+            } catch (Exception x) {
+                handleError(x);
+                return;
+            }
         }
+        lifecycleSupport.serializeDownloadQueue();
     }
 
+    // Must be called with playerLock held.
     private void handleError(Exception x) {
         Log.w(TAG, "Media player error: " + x, x);
         mediaPlayer.reset();
         setPlayerState(IDLE);
     }
 
-    protected synchronized void checkDownloads() {
-
+    /**
+     * Starts the next download, if any.  Called periodically on a background thread.  Methods that change the
+     * queue use {@link DownloadServiceLifecycleSupport#requestDownloadCheck()} instead of calling this while
+     * they hold the lock.
+     */
+    protected void checkDownloads() {
         if (!Util.isExternalStoragePresent() || !lifecycleSupport.isExternalStorageAvailable()) {
             return;
         }
 
+        PlayQueue.Snapshot snapshot = this.snapshot;
+        DownloadConditions conditions = new DownloadConditions(this, snapshot, currentPlaying);
+
+        // Cover art is small, so get it for the whole queue before the songs.
+        if (conditions.networkConnected && !jukeboxEnabled) {
+            coverArtPrefetcher.prefetch(snapshot);
+        }
+
+        List<DownloadFile> obsolete;
+        synchronized (this) {
+            startDownloads(conditions);
+            obsolete = takeCleanupCandidates();
+        }
+
+        // Delete obsolete .partial and .complete files, without holding the lock.
+        cleanup(obsolete);
+    }
+
+    private synchronized void startDownloads(DownloadConditions conditions) {
+
         if (shufflePlay) {
             checkShufflePlay();
         }
 
-        if (jukeboxEnabled || !Util.isNetworkConnected(this)) {
+        if (jukeboxEnabled || !conditions.networkConnected) {
             return;
         }
 
@@ -870,10 +1024,19 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             return;
         }
 
+        // Pinned songs may be restricted to Wi-Fi while charging.  The song being played is always downloaded.
+        boolean saveWindowOpen = conditions.saveWindowOpen;
+        if (!saveWindowOpen && currentDownloading != null && currentDownloading != currentPlaying &&
+                currentDownloading.shouldSave() && !conditions.isWorkDone(currentDownloading)) {
+            Log.i(TAG, "Postponing download of " + currentDownloading.getSong() + " until on Wi-Fi and charging.");
+            currentDownloading.cancelDownload();
+            currentDownloading = null;
+        }
+
         // Need to download current playing?
         if (currentPlaying != null &&
                 currentPlaying != currentDownloading &&
-                !currentPlaying.isCompleteFileAvailable()) {
+                !conditions.isCompleteFileAvailable(currentPlaying)) {
 
             // Cancel current download, if necessary.
             if (currentDownloading != null) {
@@ -888,19 +1051,19 @@ public class DownloadServiceImpl extends Service implements DownloadService {
         // Find a suitable target for download.
         else if (currentDownloading == null || currentDownloading.isWorkDone() || currentDownloading.isFailed() && !downloadList.isEmpty()) {
 
-            int n = size();
+            int n = downloadList.size();
             if (n == 0) {
                 return;
             }
 
             int preloaded = 0;
 
-            int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
+            int start = currentPlaying == null ? 0 : downloadList.getCurrentIndex();
             int i = start;
             do {
                 DownloadFile downloadFile = downloadList.get(i);
-                if (!downloadFile.isWorkDone()) {
-                    if (downloadFile.shouldSave() || preloaded < Util.getPreloadCount(this)) {
+                if (!conditions.isWorkDone(downloadFile)) {
+                    if (downloadFile.shouldSave() ? saveWindowOpen : preloaded < conditions.preloadCount) {
                         currentDownloading = downloadFile;
                         currentDownloading.download();
                         cleanupCandidates.add(currentDownloading);
@@ -913,10 +1076,10 @@ public class DownloadServiceImpl extends Service implements DownloadService {
                 i = (i + 1) % n;
             } while (i != start);
         }
-		else if(!backgroundDownloadList.isEmpty()) {
+		else if(!backgroundDownloadList.isEmpty() && saveWindowOpen) {
 			for(int i = 0; i < backgroundDownloadList.size(); i++) {
 				DownloadFile downloadFile = backgroundDownloadList.get(i);
-				if (!downloadFile.isWorkDone() && downloadFile.shouldSave()) {
+				if (!conditions.isWorkDone(downloadFile) && downloadFile.shouldSave()) {
 					currentDownloading = downloadFile;
 					currentDownloading.download();
 					cleanupCandidates.add(currentDownloading);
@@ -924,9 +1087,6 @@ public class DownloadServiceImpl extends Service implements DownloadService {
                 }
 			}
 		}
-
-        // Delete obsolete .partial and .complete files.
-        cleanup();
     }
 
     private synchronized void checkShufflePlay() {
@@ -936,32 +1096,36 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 		int listSize = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_RANDOM_SIZE, "20"));
         boolean wasEmpty = downloadList.isEmpty();
 
-        long revisionBefore = revision;
+        boolean changed = false;
 
         // First, ensure that list is at least 20 songs long.
-        int size = size();
+        int size = downloadList.size();
         if (size < listSize) {
             for (MusicDirectory.Entry song : shufflePlayBuffer.get(listSize - size)) {
-                DownloadFile downloadFile = new DownloadFile(this, song, false);
+                DownloadFile downloadFile = downloadFileRegistry.obtain(this, song, false);
                 downloadList.add(downloadFile);
-                revision++;
+                downloadFileRegistry.add(downloadFile);
+                changed = true;
             }
         }
 
-        int currIndex = currentPlaying == null ? 0 : getCurrentPlayingIndex();
+        int currIndex = currentPlaying == null ? 0 : downloadList.getCurrentIndex();
 
         // Only shift playlist if playing song #5 or later.
         if (currIndex > 4) {
             int songsToShift = currIndex - 2;
             for (MusicDirectory.Entry song : shufflePlayBuffer.get(songsToShift)) {
-                downloadList.add(new DownloadFile(this, song, false));
+                DownloadFile downloadFile = downloadFileRegistry.obtain(this, song, false);
+                downloadList.add(downloadFile);
+                downloadFileRegistry.add(downloadFile);
                 downloadList.get(0).cancelDownload();
-                downloadList.remove(0);
-                revision++;
+                downloadFileRegistry.remove(downloadList.remove(0));
+                changed = true;
             }
         }
 
-        if (revisionBefore != revision) {
+        if (changed) {
+            queueChanged();
             updateJukeboxPlaylist();
         }
 
@@ -971,17 +1135,70 @@ public class DownloadServiceImpl extends Service implements DownloadService {
     }
 
     public long getDownloadListUpdateRevision() {
-        return revision;
+        return snapshot.getRevision();
+    }
+
+    @Override
+    public PlayQueue.Snapshot getDownloadQueueSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void addQueueListener(QueueListener listener) {
+        queueListeners.add(listener);
+    }
+
+    @Override
+    public void removeQueueListener(QueueListener listener) {
+        queueListeners.remove(listener);
+    }
+
+    // Must be called with the queue lock held, after every change to either queue.
+    private void queueChanged() {
+        revision++;
+        publishSnapshot();
+    }
+
+    // Must be called with the queue lock held, after every change to the queues or the current song.
+    private void publishSnapshot() {
+        final PlayQueue.Snapshot snapshot = new PlayQueue.Snapshot(revision, downloadList, backgroundDownloadList,
+                downloadList.getCurrentIndex(), this.snapshot);
+        this.snapshot = snapshot;
+
+        // Posted in order, so listeners see every snapshot.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (QueueListener listener : queueListeners) {
+                    listener.onQueueChanged(snapshot);
+                }
+            }
+        });
     }
 
-    private synchronized void cleanup() {
+    private synchronized List<DownloadFile> takeCleanupCandidates() {
+        List<DownloadFile> result = new ArrayList<DownloadFile>();
         Iterator<DownloadFile> iterator = cleanupCandidates.iterator();
         while (iterator.hasNext()) {
             DownloadFile downloadFile = iterator.next();
             if (downloadFile != currentPlaying && downloadFile != currentDownloading) {
-                if (downloadFile.cleanup()) {
-                    iterator.remove();
-                }
+                result.add(downloadFile);
+                iterator.remove();
+            }
+        }
+        return result;
+    }
+
+    private void cleanup(List<DownloadFile> downloadFiles) {
+        List<DownloadFile> failed = new ArrayList<DownloadFile>();
+        for (DownloadFile downloadFile : downloadFiles) {
+            if (!downloadFile.cleanup()) {
+                failed.add(downloadFile);
+            }
+        }
+        if (!failed.isEmpty()) {
+            synchronized (this) {
+                cleanupCandidates.addAll(failed);
             }
         }
     }
@@ -1003,7 +1220,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             long byteCount = Math.max(100000, bitRate * 1024 / 8 * downloadFile.getBufferLength());
 
             // Find out how large the file should grow before resuming playback.
-            expectedFileSize = partialFile.length() + byteCount;
+            expectedFileSize = downloadFile.getPartialLength() + byteCount;
         }
 
         @Override
@@ -1021,7 +1238,7 @@ public class DownloadServiceImpl extends Service implements DownloadService {
 
         private boolean bufferComplete() {
             boolean completeFileAvailable = downloadFile.isCompleteFileAvailable();
-            long size = partialFile.length();
+            long size = downloadFile.getPartialLength();
 
             Log.i(TAG, "Buffering " + partialFile + " (" + size + "/" + expectedFileSize + ", " + completeFileAvailable + ")");
             return completeFileAvailable || size >= expectedFileSize;
@@ -1032,4 +1249,37 @@ public class DownloadServiceImpl extends Service implements DownloadService {
             return "BufferTask (" + downloadFile + ")";
         }
     }
+
+    /**
+     * What {@link #startDownloads} needs to know that takes IPC or disk access to find out, read before taking
+     * the lock.  Songs added to the queue since the snapshot are checked when needed.
+     */
+    private static class DownloadConditions {
+        private final boolean networkConnected;
+        private final boolean saveWindowOpen;
+        private final int preloadCount;
+        private final Map<DownloadFile, Boolean> workDone = new IdentityHashMap<DownloadFile, Boolean>();
+        private final DownloadFile currentPlaying;
+        private final boolean currentPlayingComplete;
+
+        DownloadConditions(Context context, PlayQueue.Snapshot snapshot, DownloadFile currentPlaying) {
+            networkConnected = Util.isNetworkConnected(context);
+            saveWindowOpen = Util.isSaveWindowOpen(context);
+            preloadCount = Util.getPreloadCount(context);
+            for (DownloadFile downloadFile : snapshot.getDownloads()) {
+                workDone.put(downloadFile, downloadFile.isWorkDone());
+            }
+            this.currentPlaying = currentPlaying;
+            currentPlayingComplete = currentPlaying != null && currentPlaying.isCompleteFileAvailable();
+        }
+
+        boolean isWorkDone(DownloadFile downloadFile) {
+            Boolean done = workDone.get(downloadFile);
+            return done == null ? downloadFile.isWorkDone() : done;
+        }
+
+        boolean isCompleteFileAvailable(DownloadFile downloadFile) {
+            return downloadFile == currentPlaying ? currentPlayingComplete : downloadFile.isCompleteFileAvailable();
+        }
+    }
 }
@@ -21,7 +21,9 @@ package github.madmarty.madsonic.service;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -49,7 +51,9 @@ public class DownloadServiceLifecycleSupport {
     private static final String FILENAME_DOWNLOADS_SER = "downloadstate.ser";
 
     private final DownloadServiceImpl downloadService;
-    private ScheduledExecutorService executorService;
+    private volatile ScheduledExecutorService executorService;
+    private Runnable downloadChecker;
+    private final ExecutorService serializer = Executors.newSingleThreadExecutor();
     private BroadcastReceiver headsetEventReceiver;
     private BroadcastReceiver ejectEventReceiver;
     private PhoneStateListener phoneStateListener;
@@ -86,7 +90,7 @@ public class DownloadServiceLifecycleSupport {
     }
 
     public void onCreate() {
-        Runnable downloadChecker = new Runnable() {
+        downloadChecker = new Runnable() {
             @Override
             public void run() {
                 try {
@@ -166,6 +170,14 @@ public class DownloadServiceLifecycleSupport {
 
     public void onDestroy() {
         executorService.shutdown();
+
+        // Let pending writes finish, so that they don't overwrite the final state.
+        serializer.shutdown();
+        try {
+            serializer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException x) {
+            Log.w(TAG, "Interrupted while waiting for the download queue to be written.");
+        }
         serializeDownloadQueue();
         downloadService.clear(false);
         downloadService.unregisterReceiver(ejectEventReceiver);
@@ -176,18 +188,51 @@ public class DownloadServiceLifecycleSupport {
         telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_NONE);
     }
 
+    /**
+     * Checks the downloads on the background thread as soon as possible, rather than in the caller, which
+     * usually holds the download service lock.
+     */
+    public void requestDownloadCheck() {
+        ScheduledExecutorService executorService = this.executorService;
+        if (executorService == null) {
+            // Not created yet.  The periodic check will pick it up.
+            return;
+        }
+        try {
+            executorService.execute(downloadChecker);
+        } catch (RejectedExecutionException x) {
+            Log.i(TAG, "Not checking downloads, shutting down.");
+        }
+    }
+
     public boolean isExternalStorageAvailable() {
         return externalStorageAvailable;
     }
 
     public void serializeDownloadQueue() {
-        State state = new State();
+        final State state = new State();
         for (DownloadFile downloadFile : downloadService.getDownloads()) {
             state.songs.add(downloadFile.getSong());
         }
         state.currentPlayingIndex = downloadService.getCurrentPlayingIndex();
         state.currentPlayingPosition = downloadService.getPlayerPosition();
 
+        // This is called while the download service holds its locks, so the file is written by a
+        // background thread.  It writes one state at a time, in order.
+        try {
+            serializer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeDownloadQueue(state);
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            // Shutting down.
+            writeDownloadQueue(state);
+        }
+    }
+
+    private void writeDownloadQueue(State state) {
         Log.i(TAG, "Serialized currentPlayingIndex: " + state.currentPlayingIndex + ", currentPlayingPosition: " + state.currentPlayingPosition);
         FileUtil.serialize(downloadService, state, FILENAME_DOWNLOADS_SER);
     }
@@ -0,0 +1,66 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+/**
+ * What the song lists show about a download file: whether it's cached, being downloaded, complete
+ * or saved, and whether it's playing.  Kept up to date in memory by {@link DownloadFile}, so that
+ * the UI doesn't have to look at the file system.  Instances are immutable.
+ *
+ * @author Sindre Mehus
+ */
+public final class DownloadStatus {
+
+    public enum State {
+        NOT_CACHED,
+        DOWNLOADING,
+        COMPLETE,
+        SAVED
+    }
+
+    private final State state;
+    private final long bytes;
+    private final boolean playing;
+
+    DownloadStatus(State state, long bytes, boolean playing) {
+        this.state = state;
+        this.bytes = bytes;
+        this.playing = playing;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how many bytes have been downloaded so far, if the state is {@link State#DOWNLOADING}.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public String toString() {
+        return state + " (" + bytes + (playing ? ", playing)" : ")");
+    }
+}
@@ -73,6 +73,11 @@ public interface MusicService {
 
     HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, int maxBitrate, CancellableTask task) throws Exception;
 
+    /**
+     * Returns the given byte range of the original, untranscoded file.
+     */
+    HttpResponse getDownloadRangeInputStream(Context context, MusicDirectory.Entry song, long offset, long length, CancellableTask task) throws Exception;
+
     Version getLocalVersion(Context context) throws Exception;
 
     Version getLatestVersion(Context context, ProgressListener progressListener) throws Exception;
@@ -0,0 +1,610 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+import github.madmarty.madsonic.util.Constants;
+import github.madmarty.madsonic.util.FileChangeWatcher;
+import github.madmarty.madsonic.util.FileObserverWatcher;
+import github.madmarty.madsonic.util.FileUtil;
+import github.madmarty.madsonic.util.PollingFileWatcher;
+import github.madmarty.madsonic.util.RandomSampler;
+import github.madmarty.madsonic.util.TagReader;
+
+/**
+ * Index of the music and artwork files in the local music cache, used by {@link OfflineMusicService}
+ * and {@link github.madmarty.madsonic.util.CacheCleaner} instead of walking the directory tree.
+ * <p/>
+ * The tree is walked once.  After that, the catalog is kept up to date by a {@link FileChangeWatcher}.
+ * Change events are collected and applied in batches, once they have settled for a short while.
+ * The catalog is persisted between runs.  On startup, only directories whose modification time changed
+ * are relisted.
+ *
+ * @author Sindre Mehus
+ */
+public class OfflineCatalog implements FileChangeWatcher.Listener {
+
+    private static final String TAG = OfflineCatalog.class.getSimpleName();
+    private static final String FILENAME_CATALOG_SER = "offlinecatalog.ser";
+
+    // Apply changes once no new events have arrived for this long...
+    private static final long DEBOUNCE_MILLIS = 2000L;
+
+    // ...but never delay them more than this.
+    private static final long MAX_DELAY_MILLIS = 10000L;
+
+    // How often directories are checked for changes if the file system can't notify us.
+    private static final long POLL_INTERVAL_SECONDS = 30L;
+
+    private static OfflineCatalog instance;
+
+    private final Context context;
+    private final File root;
+    // Chosen when the catalog is loaded, since probing the file system may take a while.
+    private volatile FileChangeWatcher watcher;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+    // Keyed by path.  Sorted, so that all entries below a directory form a contiguous range.
+    private final TreeMap<String, Item> files = new TreeMap<String, Item>();
+    private final TreeMap<String, Long> directories = new TreeMap<String, Long>();
+
+    // The playable songs in no particular order, for constant time random access.  Not persisted.
+    private final List<Item> songs = new ArrayList<Item>();
+    private final Map<String, Integer> songPositions = new HashMap<String, Integer>();
+
+    private final Set<File> pendingChanges = new LinkedHashSet<File>();
+    private ScheduledFuture<?> pendingFlush;
+    private long firstPendingChange;
+    // Read without locking, so that callers can check it while the catalog is loading.
+    private volatile boolean loaded;
+
+    // Statistics for tag reading.
+    private int tagReadCount;
+    private long tagReadMillis;
+
+    public static synchronized OfflineCatalog getInstance(Context context) {
+        File root = FileUtil.getMusicDirectory(context);
+        if (instance == null || !instance.root.equals(root)) {
+            if (instance != null) {
+                instance.shutdown();
+            }
+            instance = new OfflineCatalog(context.getApplicationContext(), root, null);
+        }
+        return instance;
+    }
+
+    private static FileChangeWatcher createWatcher(File root) {
+        if (FileObserverWatcher.canWatch(root)) {
+            return new FileObserverWatcher();
+        }
+        Log.w(TAG, "Can't observe " + root + ", polling for changes instead.");
+        return new PollingFileWatcher(POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param watcher The watcher to use, or {@code null} to choose one for the file system when loading.
+     */
+    OfflineCatalog(Context context, File root, FileChangeWatcher watcher) {
+        this.context = context;
+        this.root = root;
+        if (watcher != null) {
+            watcher.setListener(this);
+            this.watcher = watcher;
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns a snapshot of all indexed files.
+     */
+    public synchronized List<Item> getFiles() {
+        ensureLoaded();
+        return new ArrayList<Item>(files.values());
+    }
+
+    /**
+     * Returns a snapshot of all indexed directories, including the root.
+     */
+    public synchronized List<File> getDirectories() {
+        ensureLoaded();
+        List<File> result = new ArrayList<File>(directories.size());
+        for (String path : directories.keySet()) {
+            result.add(new File(path));
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return files.size();
+    }
+
+    public synchronized int getSongCount() {
+        ensureLoaded();
+        return songs.size();
+    }
+
+    /**
+     * Returns whether the catalog has been loaded, i.e., whether using it will not walk the directory tree.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the catalog in the background, if not already loaded.
+     */
+    public void loadInBackground() {
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (OfflineCatalog.this) {
+                        ensureLoaded();
+                    }
+                } catch (Throwable x) {
+                    Log.w(TAG, "Failed to load catalog.", x);
+                }
+            }
+        });
+    }
+
+    /**
+     * Picks up to {@code count} distinct playable songs at random, with probability proportional to the given weight.
+     * The cost depends on {@code count} and the weights, not on the number of songs in the catalog.
+     *
+     * @param maxWeight Upper bound of the weights returned by {@code weigher}.
+     */
+    public synchronized List<Item> sampleSongs(int count, double maxWeight, RandomSampler.Weigher<Item> weigher, Random random) {
+        ensureLoaded();
+        return RandomSampler.sample(songs, count, maxWeight, weigher, random);
+    }
+
+    /**
+     * Counts a completed playback of the given file.  Ignored if the catalog is not loaded yet, so that this
+     * never walks the directory tree.  Returns right away; the count is updated in the background, since the
+     * catalog may be busy applying changes.
+     */
+    public void recordPlay(final File file) {
+        if (!loaded) {
+            return;
+        }
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (OfflineCatalog.this) {
+                        Item item = files.get(file.getPath());
+                        if (item == null) {
+                            return;
+                        }
+                        item.playCount++;
+                    }
+                    requestPersist();
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            Log.w(TAG, "Catalog is shut down, play not recorded.");
+        }
+    }
+
+    /**
+     * Returns the embedded tags of the given file.  Each file is parsed at most once, the result is kept
+     * in the catalog for as long as the path, size and modification time of the file stay the same.
+     *
+     * @return The tags, or {@code null} if the file could not be read.
+     */
+    public TagReader.Tags getTags(File file) {
+        String path = file.getPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            ensureLoaded();
+            Item item = files.get(path);
+            if (item != null && item.tags != null && item.size == size && item.lastModified == lastModified) {
+                return item.tags;
+            }
+        }
+
+        long t0 = System.currentTimeMillis();
+        TagReader.Tags tags = TagReader.read(file);
+        long t1 = System.currentTimeMillis();
+        if (tags == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Item item = files.get(path);
+            if (item == null || item.size != size || item.lastModified != lastModified) {
+                item = putFile(file);
+            }
+            item.tags = tags;
+
+            tagReadCount++;
+            tagReadMillis += t1 - t0;
+            if (tagReadCount % 100 == 0) {
+                Log.i(TAG, "Read tags from " + tagReadCount + " files, " + (tagReadMillis / tagReadCount) + " ms per file on average.");
+            }
+        }
+        requestPersist();
+        return tags;
+    }
+
+    /**
+     * Like {@link #getTags}, but never waits for the catalog to load.  Until it has, the tags are read from
+     * the file every time.
+     */
+    public TagReader.Tags getTagsIfLoaded(File file) {
+        return loaded ? getTags(file) : TagReader.read(file);
+    }
+
+    public void shutdown() {
+        FileChangeWatcher watcher = this.watcher;
+        if (watcher != null) {
+            watcher.stop();
+        }
+        executorService.shutdown();
+    }
+
+    @Override
+    public void onFileChanged(File file) {
+        synchronized (pendingChanges) {
+            long now = System.currentTimeMillis();
+            if (pendingChanges.isEmpty()) {
+                firstPendingChange = now;
+            }
+            pendingChanges.add(file);
+
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+            }
+            long delay = Math.min(DEBOUNCE_MILLIS, firstPendingChange + MAX_DELAY_MILLIS - now);
+            pendingFlush = executorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, Math.max(delay, 0L), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the catalog with the next batch of changes, or within a few seconds if there are none.
+     */
+    private void requestPersist() {
+        synchronized (pendingChanges) {
+            if (pendingFlush == null) {
+                firstPendingChange = System.currentTimeMillis();
+                pendingFlush = executorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        List<File> changes;
+        synchronized (pendingChanges) {
+            changes = new ArrayList<File>(pendingChanges);
+            pendingChanges.clear();
+            pendingFlush = null;
+        }
+
+        try {
+            synchronized (this) {
+                if (!loaded) {
+                    return;
+                }
+                apply(changes);
+                persist();
+            }
+            if (!changes.isEmpty()) {
+                Log.i(TAG, "Applied " + changes.size() + " file changes to catalog.");
+            }
+        } catch (Throwable x) {
+            Log.w(TAG, "Failed to update catalog.", x);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        if (watcher == null) {
+            FileChangeWatcher watcher = createWatcher(root);
+            watcher.setListener(this);
+            this.watcher = watcher;
+        }
+
+        State state = FileUtil.deserialize(context, FILENAME_CATALOG_SER);
+        if (state != null && root.getPath().equals(state.root)) {
+            for (Item item : state.files.values()) {
+                putItem(item);
+            }
+            directories.putAll(state.directories);
+            reconcile();
+        } else {
+            scanTree(root);
+        }
+        loaded = true;
+        persist();
+        Log.i(TAG, "Loaded catalog with " + files.size() + " files in " + directories.size() + " directories.");
+    }
+
+    /**
+     * Catches up with changes made while the app was not running.  Adding, removing or renaming a file changes the
+     * modification time of its directory, so only those directories need to be listed again.
+     */
+    private void reconcile() {
+        List<File> changed = new ArrayList<File>();
+        for (Map.Entry<String, Long> entry : directories.entrySet()) {
+            File dir = new File(entry.getKey());
+            if (dir.lastModified() != entry.getValue()) {
+                changed.add(dir);
+            }
+        }
+        for (String path : directories.keySet()) {
+            watcher.watch(new File(path));
+        }
+        apply(changed);
+    }
+
+    private void apply(Collection<File> changes) {
+        for (File file : changes) {
+            String path = file.getPath();
+            if (!path.equals(root.getPath()) && !path.startsWith(root.getPath() + "/")) {
+                continue;
+            }
+
+            if (!file.exists()) {
+                removeTree(path);
+            } else if (file.isDirectory()) {
+                if (directories.containsKey(path)) {
+                    rescanDirectory(file);
+                } else {
+                    scanTree(file);
+                }
+            } else if (isCatalogFile(file)) {
+                putFile(file);
+            }
+        }
+    }
+
+    private void scanTree(File dir) {
+        directories.put(dir.getPath(), dir.lastModified());
+        watcher.watch(dir);
+
+        for (File child : FileUtil.listFiles(dir)) {
+            if (child.isDirectory()) {
+                scanTree(child);
+            } else if (isCatalogFile(child)) {
+                putFile(child);
+            }
+        }
+    }
+
+    /**
+     * Relists a known directory without descending into known subdirectories.
+     */
+    private void rescanDirectory(File dir) {
+        String prefix = dir.getPath() + "/";
+        Set<String> present = new HashSet<String>();
+
+        for (File child : FileUtil.listFiles(dir)) {
+            String path = child.getPath();
+            present.add(path);
+            if (child.isDirectory()) {
+                if (!directories.containsKey(path)) {
+                    scanTree(child);
+                }
+            } else if (isCatalogFile(child)) {
+                putFile(child);
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String path : below(files, prefix).keySet()) {
+            if (isDirectChild(prefix, path) && !present.contains(path)) {
+                removed.add(path);
+            }
+        }
+        for (String path : below(directories, prefix).keySet()) {
+            if (isDirectChild(prefix, path) && !present.contains(path)) {
+                removed.add(path);
+            }
+        }
+        for (String path : removed) {
+            removeTree(path);
+        }
+
+        directories.put(dir.getPath(), dir.lastModified());
+    }
+
+    /**
+     * Indexes the current attributes of the given file.  The play count carries over from the previous version.
+     * If the size and modification time are unchanged, the previous entry is kept as is, with its parsed tags.
+     */
+    private Item putFile(File file) {
+        Item item = new Item(file);
+        Item previous = files.get(item.path);
+        if (previous != null) {
+            if (previous.size == item.size && previous.lastModified == item.lastModified) {
+                return previous;
+            }
+            item.playCount = previous.playCount;
+        }
+        putItem(item);
+        return item;
+    }
+
+    private void putItem(Item item) {
+        files.put(item.path, item);
+        if (!isSong(item.path)) {
+            return;
+        }
+        Integer position = songPositions.get(item.path);
+        if (position == null) {
+            songPositions.put(item.path, songs.size());
+            songs.add(item);
+        } else {
+            songs.set(position, item);
+        }
+    }
+
+    private void removeFile(String path) {
+        files.remove(path);
+        Integer position = songPositions.remove(path);
+        if (position != null) {
+            // Move the last song into the hole, to avoid shifting the list.
+            Item last = songs.remove(songs.size() - 1);
+            if (position < songs.size()) {
+                songs.set(position, last);
+                songPositions.put(last.path, position);
+            }
+        }
+    }
+
+    private void removeTree(String path) {
+        removeFile(path);
+        if (directories.remove(path) != null) {
+            watcher.unwatch(new File(path));
+        }
+
+        String prefix = path + "/";
+        for (String file : new ArrayList<String>(below(files, prefix).keySet())) {
+            removeFile(file);
+        }
+        Iterator<String> iterator = below(directories, prefix).keySet().iterator();
+        while (iterator.hasNext()) {
+            watcher.unwatch(new File(iterator.next()));
+            iterator.remove();
+        }
+    }
+
+    private static <V> SortedMap<String, V> below(TreeMap<String, V> map, String prefix) {
+        // '0' is the character following '/'.
+        return map.subMap(prefix, prefix.substring(0, prefix.length() - 1) + '0');
+    }
+
+    private static boolean isDirectChild(String prefix, String path) {
+        return path.indexOf('/', prefix.length()) == -1;
+    }
+
+    private static boolean isCatalogFile(File file) {
+        return FileUtil.isMusicFile(file) || Constants.ALBUM_ART_FILE.equals(file.getName());
+    }
+
+    private static boolean isSong(String path) {
+        return FileUtil.isMusicFile(new File(path)) && !path.endsWith(".partial") && !path.contains(".partial.");
+    }
+
+    private void persist() {
+        State state = new State();
+        state.root = root.getPath();
+        state.files = new TreeMap<String, Item>(files);
+        state.directories = new TreeMap<String, Long>(directories);
+        FileUtil.serialize(context, state, FILENAME_CATALOG_SER);
+    }
+
+    /**
+     * A file in the catalog, with the attributes recorded when it was last indexed, and its tags once read.
+     */
+    public static class Item implements Serializable {
+        private static final long serialVersionUID = -2361538193765239170L;
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private TagReader.Tags tags;
+        private int playCount;
+
+        Item(File file) {
+            path = file.getPath();
+            size = file.length();
+            lastModified = file.lastModified();
+        }
+
+        public File getFile() {
+            return new File(path);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the tags, or {@code null} if they haven't been read yet.
+         */
+        public TagReader.Tags getTags() {
+            return tags;
+        }
+
+        /**
+         * Returns the number of completed playbacks of this file.
+         */
+        public int getPlayCount() {
+            return playCount;
+        }
+    }
+
+    private static class State implements Serializable {
+        private static final long serialVersionUID = 4380163212486521749L;
+
+        private String root;
+        private TreeMap<String, Item> files;
+        private TreeMap<String, Long> directories;
+    }
+}
@@ -19,21 +19,19 @@
 package github.madmarty.madsonic.service;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.Reader;
 import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import github.madmarty.madsonic.domain.Artist;
 import github.madmarty.madsonic.domain.Indexes;
 import github.madmarty.madsonic.domain.JukeboxStatus;
@@ -44,9 +42,13 @@ import github.madmarty.madsonic.domain.Playlist;
 import github.madmarty.madsonic.domain.SearchCritera;
 import github.madmarty.madsonic.domain.SearchResult;
 import github.madmarty.madsonic.service.parser.PlaylistParser;
+import github.madmarty.madsonic.util.ArtworkCache;
+import github.madmarty.madsonic.util.BitmapDecoder;
 import github.madmarty.madsonic.util.Constants;
 import github.madmarty.madsonic.util.FileUtil;
 import github.madmarty.madsonic.util.ProgressListener;
+import github.madmarty.madsonic.util.RandomSampler;
+import github.madmarty.madsonic.util.TagReader;
 import github.madmarty.madsonic.util.Util;
 
 /**
@@ -54,6 +56,12 @@ import github.madmarty.madsonic.util.Util;
  */
 public class OfflineMusicService extends RESTMusicService {
 
+    // Number of recent random songs that are not picked again, as long as the library is large enough.
+    private static final int RECENT_RANDOM_SONGS = 200;
+    private static final double MAX_RANDOM_SONG_WEIGHT = 4.0;
+
+    private final Set<String> recentRandomSongs = new LinkedHashSet<String>();
+
     @Override
     public boolean isLicenseValid(Context context, ProgressListener progressListener) throws Exception {
         return true;
@@ -108,6 +116,13 @@ public class OfflineMusicService extends RESTMusicService {
     }
 
     private MusicDirectory.Entry createEntry(Context context, File file, String name) {
+        return createEntry(context, file, name, true);
+    }
+
+    /**
+     * @param waitForCatalog Whether to wait for the catalog to load, rather than reading the tags from the file.
+     */
+    private MusicDirectory.Entry createEntry(Context context, File file, String name, boolean waitForCatalog) {
         MusicDirectory.Entry entry = new MusicDirectory.Entry();
         entry.setDirectory(file.isDirectory());
         entry.setId(file.getPath());
@@ -115,11 +130,13 @@ public class OfflineMusicService extends RESTMusicService {
         entry.setSize(file.length());
         String root = FileUtil.getMusicDirectory(context).getPath();
         entry.setPath(file.getPath().replaceFirst("^" + root + "/" , ""));
+        entry.setTitle(name);
         if (file.isFile()) {
             entry.setArtist(file.getParentFile().getParentFile().getName());
             entry.setAlbum(file.getParentFile().getName());
+            OfflineCatalog catalog = OfflineCatalog.getInstance(context);
+            setTags(entry, waitForCatalog ? catalog.getTags(file) : catalog.getTagsIfLoaded(file));
         }
-        entry.setTitle(name);
         entry.setSuffix(FileUtil.getExtension(file.getName().replace(".complete", "")));
 
         File albumArt = FileUtil.getAlbumArtFile(context, entry);
@@ -129,16 +146,35 @@ public class OfflineMusicService extends RESTMusicService {
         return entry;
     }
 
+    private void setTags(MusicDirectory.Entry entry, TagReader.Tags tags) {
+        if (tags == null) {
+            return;
+        }
+        if (tags.getTitle() != null) {
+            entry.setTitle(tags.getTitle());
+        }
+        if (tags.getArtist() != null) {
+            entry.setArtist(tags.getArtist());
+        }
+        if (tags.getAlbum() != null) {
+            entry.setAlbum(tags.getAlbum());
+        }
+        entry.setTrack(tags.getTrack());
+        entry.setYear(tags.getYear());
+        entry.setGenre(tags.getGenre());
+        entry.setDuration(tags.getDuration());
+        entry.setBitRate(tags.getBitRate());
+    }
+
     @Override
     public Bitmap getCoverArt(Context context, MusicDirectory.Entry entry, int size, boolean saveToFile, ProgressListener progressListener) throws Exception {
-        InputStream in = new FileInputStream(entry.getCoverArt());
-        try {
-            byte[] bytes = Util.toByteArray(in);
-            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-            return Bitmap.createScaledBitmap(bitmap, size, size, true);
-        } finally {
-            Util.close(in);
+        ArtworkCache artworkCache = ArtworkCache.getInstance();
+        Bitmap bitmap = artworkCache.get(context, entry, size);
+        if (bitmap == null) {
+            bitmap = BitmapDecoder.decodeFile(entry.getCoverArt(), size);
+            artworkCache.put(context, entry, size, bitmap);
         }
+        return bitmap;
     }
 
     @Override
@@ -148,62 +184,55 @@ public class OfflineMusicService extends RESTMusicService {
 
     @Override
     public SearchResult search(SearchCritera criteria, Context context, ProgressListener progressListener) throws Exception {
-		List<Artist> artists = new ArrayList<Artist>();
-		List<MusicDirectory.Entry> albums = new ArrayList<MusicDirectory.Entry>();
-		List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>();
-        File root = FileUtil.getMusicDirectory(context);
-        for (File artistFile : FileUtil.listFiles(root)) {
-			String artistName = artistFile.getName();
-            if (artistFile.isDirectory()) {
-				if(matchCriteria(criteria, artistName)) {
-					Artist artist = new Artist();
-					artist.setId(artistFile.getPath());
-					artist.setIndex(artistFile.getName().substring(0, 1));
-					artist.setName(artistName);
-					artists.add(artist);
-				}
-				
-				recursiveAlbumSearch(artistName, artistFile, criteria, context, albums, songs);
+        List<Artist> artists = new ArrayList<Artist>();
+        List<MusicDirectory.Entry> albums = new ArrayList<MusicDirectory.Entry>();
+        List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>();
+
+        OfflineCatalog catalog = OfflineCatalog.getInstance(context);
+        File root = catalog.getRoot();
+
+        for (File dir : catalog.getDirectories()) {
+            String name = dir.getName();
+            if (dir.equals(root) || !matchCriteria(criteria, name)) {
+                continue;
+            }
+            if (root.equals(dir.getParentFile())) {
+                Artist artist = new Artist();
+                artist.setId(dir.getPath());
+                artist.setIndex(name.substring(0, 1));
+                artist.setName(name);
+                artists.add(artist);
+            } else {
+                MusicDirectory.Entry album = createEntry(context, dir, name);
+                album.setArtist(getArtistName(root, dir));
+                albums.add(album);
             }
         }
-		
-		return new SearchResult(artists, albums, songs);
+
+        Set<String> names = new HashSet<String>();
+        for (OfflineCatalog.Item item : catalog.getFiles()) {
+            File file = item.getFile();
+            String name = getName(file);
+            if (name == null || root.equals(file.getParentFile()) || !matchCriteria(criteria, name)) {
+                continue;
+            }
+
+            // Skip duplicates, e.g., both the .complete and the saved version of a song.
+            if (names.add(file.getParent() + "/" + name)) {
+                songs.add(createEntry(context, file, name));
+            }
+        }
+
+        return new SearchResult(artists, albums, songs);
+    }
+
+    private String getArtistName(File root, File file) {
+        while (file.getParentFile() != null && !root.equals(file.getParentFile())) {
+            file = file.getParentFile();
+        }
+        return file.getName();
     }
-	
-	private void recursiveAlbumSearch(String artistName, File file, SearchCritera criteria, Context context, List<MusicDirectory.Entry> albums, List<MusicDirectory.Entry> songs) {
-		for(File albumFile : FileUtil.listMusicFiles(file)) {
-			if(albumFile.isDirectory()) {
-				String albumName = getName(albumFile);
-				if(matchCriteria(criteria, albumName)) {
-					MusicDirectory.Entry album = createEntry(context, albumFile, albumName);
-					album.setArtist(artistName);
-					albums.add(album);
-				}
 
-				for(File songFile : FileUtil.listMusicFiles(albumFile)) {
-					String songName = getName(songFile);
-					if(songFile.isDirectory()) {
-						recursiveAlbumSearch(artistName, songFile, criteria, context, albums, songs);
-					}
-					else if(matchCriteria(criteria, songName)){
-						MusicDirectory.Entry song = createEntry(context, albumFile, songName);
-						song.setArtist(artistName);
-						song.setAlbum(albumName);
-						songs.add(song);
-					}
-				}
-			}
-			else {
-				String songName = getName(albumFile);
-				if(matchCriteria(criteria, songName)) {
-					MusicDirectory.Entry song = createEntry(context, albumFile, songName);
-					song.setArtist(artistName);
-					song.setAlbum(songName);
-					songs.add(song);
-				}
-			}
-		}
-	}
 	private boolean matchCriteria(SearchCritera criteria, String name) {
 		String query = criteria.getQuery().toLowerCase();
 		String[] parts = query.split(" ");
@@ -320,29 +349,92 @@ public class OfflineMusicService extends RESTMusicService {
     }
     @Override
     public MusicDirectory getRandomSongs(int size, Context context, ProgressListener progressListener) throws Exception {
-        File root = FileUtil.getMusicDirectory(context);
-        List<File> children = new LinkedList<File>();
-        listFilesRecursively(root, children);
+        OfflineCatalog catalog = OfflineCatalog.getInstance(context);
+        List<File> files = new ArrayList<File>();
+        Random random = new Random();
+        boolean loaded;
+
+        synchronized (recentRandomSongs) {
+            loaded = catalog.isLoaded();
+            if (loaded) {
+                final int window = Math.min(RECENT_RANDOM_SONGS, catalog.getSongCount() / 2);
+                RandomSampler.Weigher<OfflineCatalog.Item> weigher = new RandomSampler.Weigher<OfflineCatalog.Item>() {
+                    @Override
+                    public double getWeight(OfflineCatalog.Item item) {
+                        return isRecent(item.getPath(), window) ? 0.0 : getRandomSongWeight(item);
+                    }
+                };
+                for (OfflineCatalog.Item item : catalog.sampleSongs(size, MAX_RANDOM_SONG_WEIGHT, weigher, random)) {
+                    files.add(item.getFile());
+                }
+            } else {
+                // Don't keep the caller waiting for the catalog.  Sample while walking the tree instead,
+                // without holding on to more than the requested number of files.
+                RandomSampler.Reservoir<File> reservoir = new RandomSampler.Reservoir<File>(size, random);
+                sampleFilesRecursively(FileUtil.getMusicDirectory(context), reservoir);
+                files.addAll(reservoir.getItems());
+                catalog.loadInBackground();
+            }
+
+            for (File file : files) {
+                recentRandomSongs.remove(file.getPath());
+                recentRandomSongs.add(file.getPath());
+            }
+            Iterator<String> iterator = recentRandomSongs.iterator();
+            while (recentRandomSongs.size() > RECENT_RANDOM_SONGS) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
         MusicDirectory result = new MusicDirectory();
+        for (File file : files) {
+            result.addChild(createEntry(context, file, getName(file), loaded));
+        }
+        return result;
+    }
 
-        if (children.isEmpty()) {
-            return result;
+    /**
+     * Returns whether the given song was among the last {@code window} random songs.
+     */
+    private boolean isRecent(String path, int window) {
+        if (window <= 0 || !recentRandomSongs.contains(path)) {
+            return false;
         }
-        Random random = new Random();
-        for (int i = 0; i < size; i++) {
-            File file = children.get(random.nextInt(children.size()));
-            result.addChild(createEntry(context, file, getName(file)));
+        if (window >= recentRandomSongs.size()) {
+            return true;
         }
+        int skip = recentRandomSongs.size() - window;
+        for (String recent : recentRandomSongs) {
+            if (skip-- <= 0) {
+                return true;
+            }
+            if (recent.equals(path)) {
+                return false;
+            }
+        }
+        return false;
+    }
 
-        return result;
+    /**
+     * Favors songs that are played often, and songs that were explicitly saved rather than just cached.
+     * Bounded by {@link #MAX_RANDOM_SONG_WEIGHT}.
+     */
+    private static double getRandomSongWeight(OfflineCatalog.Item item) {
+        double weight = 1.0 + Math.min(Math.log(1 + item.getPlayCount()), 2.0);
+        if (!item.getPath().contains(".complete.")) {
+            weight += 1.0;
+        }
+        return weight;
     }
 
-    private void listFilesRecursively(File parent, List<File> children) {
+    private void sampleFilesRecursively(File parent, RandomSampler.Reservoir<File> reservoir) {
         for (File file : FileUtil.listMusicFiles(parent)) {
-            if (file.isFile()) {
-                children.add(file);
-            } else {
-                listFilesRecursively(file, children);
+            if (file.isDirectory()) {
+                sampleFilesRecursively(file, reservoir);
+            } else if (getName(file) != null) {
+                // Recent songs are only picked if there are too few others.
+                reservoir.offer(file, recentRandomSongs.contains(file.getPath()) ? 0.001 : 1.0);
             }
         }
     }
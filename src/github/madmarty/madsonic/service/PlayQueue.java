@@ -0,0 +1,671 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The play queue.  It's a list backed by a balanced tree, so that inserting, removing and
+ * finding the position of an entry take O(log n) time, and the position of the current entry
+ * is known without searching.
+ * <p/>
+ * Each download file can be in the queue only once.  Not thread-safe.  The element type is a parameter
+ * only so that the tree can be tested on its own.
+ *
+ * @author Sindre Mehus
+ */
+public class PlayQueue<E> extends AbstractList<E> {
+
+    private final Map<Object, Node> nodes = new IdentityHashMap<Object, Node>();
+    private Node root;
+    private Node current;
+    private int currentIndex = -1;
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public E get(int index) {
+        checkIndex(index, size());
+        return elementOf(nodeAt(index));
+    }
+
+    @Override
+    public E set(int index, E element) {
+        checkIndex(index, size());
+        Node node = nodeAt(index);
+        E old = elementOf(node);
+        if (old != element) {
+            checkNotQueued(element);
+            nodes.remove(old);
+            node.element = element;
+            nodes.put(element, node);
+            if (node == current) {
+                setCurrent(null);
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkIndex(index, size() + 1);
+        checkNotQueued(element);
+
+        Node node = new Node(element);
+        if (root == null) {
+            root = node;
+        } else if (index == size()) {
+            attachRight(last(root), node);
+        } else {
+            Node at = nodeAt(index);
+            if (at.left == null) {
+                at.left = node;
+                node.parent = at;
+            } else {
+                attachRight(last(at.left), node);
+            }
+        }
+        nodes.put(element, node);
+        rebalance(node.parent);
+
+        if (current != null && index <= currentIndex) {
+            currentIndex++;
+        }
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        checkIndex(index, size());
+        Node node = nodeAt(index);
+        E element = elementOf(node);
+        remove(node, index);
+        return element;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Node node = nodes.get(o);
+        if (node == null) {
+            return false;
+        }
+        remove(node, rank(node));
+        return true;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Node node = nodes.get(o);
+        return node == null ? -1 : rank(node);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        root = null;
+        setCurrent(null);
+        modCount++;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * Sets the entry whose position is tracked by {@link #getCurrentIndex()}.
+     */
+    public void setCurrent(E element) {
+        current = element == null ? null : nodes.get(element);
+        currentIndex = current == null ? -1 : rank(current);
+    }
+
+    /**
+     * Returns the position of the current entry, or -1 if it's not in the queue.  Takes constant time.
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    private void remove(Node node, int index) {
+        nodes.remove(node.element);
+        if (node == current) {
+            current = null;
+            currentIndex = -1;
+        } else if (current != null && index < currentIndex) {
+            currentIndex--;
+        }
+        unlink(node);
+        modCount++;
+    }
+
+    private void unlink(Node node) {
+        // A node with two children takes the entry of its successor, which is then removed instead.
+        if (node.left != null && node.right != null) {
+            Node successor = first(node.right);
+            node.element = successor.element;
+            nodes.put(node.element, node);
+            if (current == successor) {
+                current = node;
+            }
+            node = successor;
+        }
+
+        Node child = node.left != null ? node.left : node.right;
+        Node parent = node.parent;
+        replaceChild(parent, node, child);
+        rebalance(parent);
+    }
+
+    private Node nodeAt(int index) {
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int rank(Node node) {
+        int rank = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                rank += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return rank;
+    }
+
+    private static Node first(Node node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static Node last(Node node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null) {
+            return first(node.right);
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private static void attachRight(Node parent, Node node) {
+        parent.right = node;
+        node.parent = parent;
+    }
+
+    private void replaceChild(Node parent, Node old, Node child) {
+        if (child != null) {
+            child.parent = parent;
+        }
+        if (parent == null) {
+            root = child;
+        } else if (parent.left == old) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+    }
+
+    /**
+     * Restores the sizes and the AVL balance from the given node up to the root.
+     */
+    private void rebalance(Node node) {
+        while (node != null) {
+            update(node);
+            int balance = height(node.left) - height(node.right);
+            if (balance > 1) {
+                if (height(node.left.left) < height(node.left.right)) {
+                    rotateLeft(node.left);
+                }
+                rotateRight(node);
+                node = node.parent;
+            } else if (balance < -1) {
+                if (height(node.right.right) < height(node.right.left)) {
+                    rotateRight(node.right);
+                }
+                rotateLeft(node);
+                node = node.parent;
+            }
+            node = node.parent;
+        }
+    }
+
+    private void rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = node;
+        }
+        replaceChild(node.parent, node, pivot);
+        pivot.left = node;
+        node.parent = pivot;
+        update(node);
+        update(pivot);
+    }
+
+    private void rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = node;
+        }
+        replaceChild(node.parent, node, pivot);
+        pivot.right = node;
+        node.parent = pivot;
+        update(node);
+        update(pivot);
+    }
+
+    private static void update(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (limit - 1));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementOf(Node node) {
+        return (E) node.element;
+    }
+
+    private void checkNotQueued(Object element) {
+        if (nodes.containsKey(element)) {
+            throw new IllegalArgumentException(element + " is already in the play queue");
+        }
+    }
+
+    private static class Node {
+        private Object element;
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int height = 1;
+        private int size = 1;
+
+        Node(Object element) {
+            this.element = element;
+        }
+    }
+
+    /**
+     * In-order iterator, which takes amortized constant time per step.
+     */
+    private class Itr implements Iterator<E> {
+        private Node next = root == null ? null : first(root);
+        private Node lastReturned;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = successor(next);
+            return elementOf(lastReturned);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            // If it has two children, its node takes over the next entry.
+            if (lastReturned.left != null && lastReturned.right != null) {
+                next = lastReturned;
+            }
+            PlayQueue.this.remove(lastReturned, rank(lastReturned));
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * A read-only copy of the download queue, for the UI.  It doesn't change after it's created.
+     * The background downloads follow the play queue in the list.
+     */
+    public static class Snapshot {
+        private final long revision;
+        private final List<DownloadFile> downloads;
+        private final int queueSize;
+        private final int currentIndex;
+        private final Diff diff;
+
+        /**
+         * @param previous The snapshot this one replaces, or {@code null}.  The diff is computed against it.
+         */
+        public Snapshot(long revision, List<DownloadFile> queue, List<DownloadFile> background, int currentIndex, Snapshot previous) {
+            List<DownloadFile> downloads = new ArrayList<DownloadFile>(queue.size() + background.size());
+            downloads.addAll(queue);
+            downloads.addAll(background);
+            this.revision = revision;
+            this.downloads = Collections.unmodifiableList(downloads);
+            this.queueSize = queue.size();
+            this.currentIndex = currentIndex;
+
+            if (previous == null) {
+                diff = null;
+            } else if (previous.revision == revision) {
+                diff = new Diff(revision);
+            } else {
+                diff = new Diff(previous.revision, previous.downloads, downloads);
+            }
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        public List<DownloadFile> getDownloads() {
+            return downloads;
+        }
+
+        /**
+         * Returns the number of songs in the play queue, not counting the background downloads.
+         */
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public int getCurrentIndex() {
+            return currentIndex;
+        }
+
+        /**
+         * Returns the changes since the previous snapshot, or {@code null} if they're not known.
+         */
+        public Diff getDiff() {
+            return diff;
+        }
+    }
+
+    /**
+     * The changes between two versions of the download list: the ranges of songs that were removed,
+     * inserted or moved.  Songs are compared by identity.
+     * <p/>
+     * Unchanged songs at the start and end of the list are skipped first, so adding, removing and
+     * appending songs are found in linear time.  The songs that are left are matched up, and those
+     * that don't belong to the longest run that kept its order count as moved.  That makes it
+     * O(n log n) for a shuffled list, and the number of moves as small as it can be.
+     */
+    public static class Diff {
+        private final long fromRevision;
+        private final List<Range> removed = new ArrayList<Range>();
+        private final List<Range> inserted = new ArrayList<Range>();
+        private final List<Range> moved = new ArrayList<Range>();
+
+        // The new position of each old position, or -1 if it was removed.  Null if nothing changed.
+        private final int[] newPositions;
+
+        private Diff(long revision) {
+            fromRevision = revision;
+            newPositions = null;
+        }
+
+        Diff(long fromRevision, List<?> from, List<?> to) {
+            this.fromRevision = fromRevision;
+            int n = from.size();
+            int m = to.size();
+            newPositions = new int[n];
+
+            int prefix = 0;
+            while (prefix < n && prefix < m && from.get(prefix) == to.get(prefix)) {
+                newPositions[prefix] = prefix;
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < n - prefix && suffix < m - prefix && from.get(n - 1 - suffix) == to.get(m - 1 - suffix)) {
+                newPositions[n - 1 - suffix] = m - 1 - suffix;
+                suffix++;
+            }
+
+            // Match up the rest.
+            Map<Object, Integer> positions = new IdentityHashMap<Object, Integer>();
+            for (int j = m - suffix - 1; j >= prefix; j--) {
+                positions.put(to.get(j), j);
+            }
+            boolean[] matched = new boolean[m];
+            int[] sequence = new int[n - prefix - suffix];
+            int sequenceLength = 0;
+            for (int i = prefix; i < n - suffix; i++) {
+                Integer j = positions.remove(from.get(i));
+                newPositions[i] = j == null ? -1 : j;
+                if (j != null) {
+                    matched[j] = true;
+                    sequence[sequenceLength++] = i;
+                }
+            }
+
+            // The songs that kept their order are those in the longest increasing run of new positions.
+            boolean[] kept = new boolean[n];
+            for (int i : longestIncreasingRun(sequence, sequenceLength)) {
+                kept[i] = true;
+            }
+
+            for (int i = prefix; i < n - suffix; ) {
+                int start = i;
+                if (newPositions[i] == -1) {
+                    while (i < n - suffix && newPositions[i] == -1) {
+                        i++;
+                    }
+                    removed.add(new Range(start, -1, i - start));
+                } else if (!kept[i]) {
+                    i++;
+                    while (i < n - suffix && !kept[i] && newPositions[i] == newPositions[i - 1] + 1) {
+                        i++;
+                    }
+                    moved.add(new Range(start, newPositions[start], i - start));
+                } else {
+                    i++;
+                }
+            }
+            for (int j = prefix; j < m - suffix; ) {
+                int start = j;
+                while (j < m - suffix && !matched[j]) {
+                    j++;
+                }
+                if (j > start) {
+                    inserted.add(new Range(-1, start, j - start));
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        /**
+         * Returns the old positions in {@code sequence} that make up the longest run with increasing
+         * new positions.
+         */
+        private int[] longestIncreasingRun(int[] sequence, int length) {
+            int[] tails = new int[length];
+            int[] predecessors = new int[length];
+            int tailCount = 0;
+            for (int k = 0; k < length; k++) {
+                int value = newPositions[sequence[k]];
+                int low = 0;
+                int high = tailCount;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (newPositions[sequence[tails[mid]]] < value) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                predecessors[k] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = k;
+                if (low == tailCount) {
+                    tailCount++;
+                }
+            }
+
+            int[] result = new int[tailCount];
+            int k = tailCount > 0 ? tails[tailCount - 1] : -1;
+            for (int r = tailCount - 1; r >= 0; r--) {
+                result[r] = sequence[k];
+                k = predecessors[k];
+            }
+            return result;
+        }
+
+        /**
+         * Returns the revision of the snapshot the changes are relative to.
+         */
+        public long getFromRevision() {
+            return fromRevision;
+        }
+
+        /**
+         * Returns true if the list didn't change.
+         */
+        public boolean isEmpty() {
+            return removed.isEmpty() && inserted.isEmpty() && moved.isEmpty();
+        }
+
+        /**
+         * Returns the removed ranges, by their positions in the old list.
+         */
+        public List<Range> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Returns the inserted ranges, by their positions in the new list.
+         */
+        public List<Range> getInserted() {
+            return inserted;
+        }
+
+        /**
+         * Returns the ranges of songs that changed place relative to the others, with their positions
+         * in both lists.
+         */
+        public List<Range> getMoved() {
+            return moved;
+        }
+
+        /**
+         * Returns the position in the new list of the song at the given position in the old list, or -1
+         * if it was removed.
+         */
+        public int getNewPosition(int oldPosition) {
+            if (newPositions == null) {
+                return oldPosition;
+            }
+            return oldPosition >= 0 && oldPosition < newPositions.length ? newPositions[oldPosition] : -1;
+        }
+    }
+
+    /**
+     * A range of consecutive songs.  The position in the old or the new list is -1 for inserted and
+     * removed ranges, respectively.
+     */
+    public static class Range {
+        private final int from;
+        private final int to;
+        private final int count;
+
+        Range(int from, int to, int count) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to + " (" + count + ")";
+        }
+    }
+}
@@ -65,7 +65,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
@@ -96,6 +95,8 @@ import github.madmarty.madsonic.service.parser.SearchResultParser;
 import github.madmarty.madsonic.service.parser.VersionParser;
 import github.madmarty.madsonic.service.ssl.SSLSocketFactory;
 import github.madmarty.madsonic.service.ssl.TrustSelfSignedStrategy;
+import github.madmarty.madsonic.util.ArtworkCache;
+import github.madmarty.madsonic.util.BitmapDecoder;
 import github.madmarty.madsonic.util.CancellableTask;
 import github.madmarty.madsonic.util.Constants;
 import github.madmarty.madsonic.util.FileUtil;
@@ -503,7 +504,9 @@ public class RESTMusicService implements MusicService {
                     }
                 }
 
-                return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+                bitmap = BitmapDecoder.decodeByteArray(bytes, size);
+                ArtworkCache.getInstance().put(context, entry, size, bitmap);
+                return bitmap;
 
             } finally {
                 Util.close(in);
@@ -546,6 +549,35 @@ public class RESTMusicService implements MusicService {
         return response;
     }
 
+    @Override
+    public HttpResponse getDownloadRangeInputStream(Context context, MusicDirectory.Entry song, long offset, long length, CancellableTask task) throws Exception {
+        String url = Util.getRestUrl(context, "stream");
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setSoTimeout(params, SOCKET_READ_TIMEOUT_DOWNLOAD);
+
+        List<Header> headers = new ArrayList<Header>();
+        headers.add(new BasicHeader("Range", "bytes=" + offset + "-" + (offset + length - 1)));
+
+        // Ask for the original file, since ranges of a transcoded stream don't line up.
+        List<String> parameterNames = Arrays.asList("id", "maxBitRate", "format");
+        List<Object> parameterValues = Arrays.<Object>asList(song.getId(), 0, "raw");
+        HttpResponse response = getResponseForURL(context, url, params, parameterNames, parameterValues, headers, null, task);
+
+        // If content type is XML, an error occurred.  Get it.
+        String contentType = Util.getContentType(response.getEntity());
+        if (contentType != null && contentType.startsWith("text/xml")) {
+            InputStream in = response.getEntity().getContent();
+            try {
+                new ErrorParser(context).parse(new InputStreamReader(in, Constants.UTF_8));
+            } finally {
+                Util.close(in);
+            }
+        }
+
+        return response;
+    }
+
     @Override
     public String getVideoUrl(Context context, String id) {
         StringBuilder builder = new StringBuilder(Util.getRestUrl(context, "videoPlayer"));
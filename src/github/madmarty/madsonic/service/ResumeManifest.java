@@ -0,0 +1,238 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+import github.madmarty.madsonic.domain.MusicDirectory;
+import github.madmarty.madsonic.util.Util;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * A small file next to a partial download that records what is being downloaded, and how much
+ * of it has safely been written.  A download is only resumed if the manifest matches, and the
+ * server sends the same bytes for the end of the partial file as last time.
+ *
+ * @author Sindre Mehus
+ */
+public class ResumeManifest {
+
+    private static final String TAG = ResumeManifest.class.getSimpleName();
+
+    /**
+     * Size of the block at the end of the partial file that is checksummed.  It is downloaded again
+     * when resuming, to check that the server resumes at the right place.
+     */
+    public static final int BLOCK_SIZE = 16 * 1024;
+
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_BIT_RATE = "bitRate";
+    private static final String KEY_SUFFIX = "suffix";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_TAIL_CHECKSUM = "tailChecksum";
+
+    private final File file;
+    private final Properties properties;
+
+    private ResumeManifest(File file, Properties properties) {
+        this.file = file;
+        this.properties = properties;
+    }
+
+    public static File getFile(File partialFile) {
+        return new File(partialFile.getPath() + ".manifest");
+    }
+
+    /**
+     * Creates and saves a manifest for a download that starts from the beginning.
+     */
+    public static ResumeManifest create(File partialFile, MusicDirectory.Entry song, int bitRate, HttpResponse response) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_SIZE, String.valueOf(song.getSize()));
+        properties.setProperty(KEY_BIT_RATE, String.valueOf(bitRate));
+        properties.setProperty(KEY_SUFFIX, getSuffix(song));
+        setHeader(properties, KEY_ETAG, response.getFirstHeader("ETag"));
+        setHeader(properties, KEY_LAST_MODIFIED, response.getFirstHeader("Last-Modified"));
+        properties.setProperty(KEY_LENGTH, "0");
+        properties.setProperty(KEY_TAIL_CHECKSUM, "0");
+
+        ResumeManifest manifest = new ResumeManifest(getFile(partialFile), properties);
+        manifest.save();
+        return manifest;
+    }
+
+    /**
+     * Returns the manifest of the given partial file, or <code>null</code> if it has none.
+     */
+    public static ResumeManifest load(File partialFile) {
+        File file = getFile(partialFile);
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            Properties properties = new Properties();
+            properties.load(in);
+            return new ResumeManifest(file, properties);
+        } catch (Exception x) {
+            Log.w(TAG, "Failed to read " + file, x);
+            return null;
+        } finally {
+            Util.close(in);
+        }
+    }
+
+    public static void delete(File partialFile) {
+        Util.delete(getFile(partialFile));
+    }
+
+    /**
+     * Returns whether the manifest was written for the same file, bit rate and format.
+     */
+    public boolean matches(MusicDirectory.Entry song, int bitRate) {
+        return String.valueOf(song.getSize()).equals(properties.getProperty(KEY_SIZE)) &&
+               String.valueOf(bitRate).equals(properties.getProperty(KEY_BIT_RATE)) &&
+               getSuffix(song).equals(properties.getProperty(KEY_SUFFIX));
+    }
+
+    /**
+     * Returns whether the validators of the response, if any, are the same as when the download started.
+     */
+    public boolean matches(HttpResponse response) {
+        return matches(KEY_ETAG, response.getFirstHeader("ETag")) &&
+               matches(KEY_LAST_MODIFIED, response.getFirstHeader("Last-Modified"));
+    }
+
+    /**
+     * Returns the length of the partial file that has been verified.
+     */
+    public long getLength() {
+        return Long.parseLong(properties.getProperty(KEY_LENGTH, "0"));
+    }
+
+    /**
+     * Returns whether the partial file still has the block that the manifest was last saved with.
+     */
+    public boolean verifyTail(File partialFile) {
+        long length = getLength();
+        if (length < BLOCK_SIZE || partialFile.length() < length) {
+            return false;
+        }
+        try {
+            return getTailChecksum(partialFile, length) == getTailChecksum();
+        } catch (IOException x) {
+            Log.w(TAG, "Failed to verify " + partialFile, x);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the first block of a resumed download, and checks that it is the same as the block
+     * at the end of the partial file.
+     */
+    public boolean verifyOverlap(InputStream in) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        int count = 0;
+        while (count < block.length) {
+            int n = in.read(block, count, block.length - count);
+            if (n == -1) {
+                throw new EOFException("Resumed download ended after " + count + " bytes");
+            }
+            count += n;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(block);
+        return crc.getValue() == getTailChecksum();
+    }
+
+    /**
+     * Records that the partial file, which should have been synced to disk, is valid up to its current length.
+     */
+    public void checkpoint(File partialFile) throws IOException {
+        long length = partialFile.length();
+        if (length < BLOCK_SIZE) {
+            return;
+        }
+        properties.setProperty(KEY_LENGTH, String.valueOf(length));
+        properties.setProperty(KEY_TAIL_CHECKSUM, String.valueOf(getTailChecksum(partialFile, length)));
+        save();
+    }
+
+    private long getTailChecksum() {
+        return Long.parseLong(properties.getProperty(KEY_TAIL_CHECKSUM, "0"));
+    }
+
+    private static long getTailChecksum(File partialFile, long length) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(partialFile, "r");
+        try {
+            raf.seek(length - BLOCK_SIZE);
+            raf.readFully(block);
+        } finally {
+            Util.close(raf);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(block);
+        return crc.getValue();
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, null);
+            out.getFD().sync();
+        } finally {
+            Util.close(out);
+        }
+        if (!tmp.renameTo(file)) {
+            Util.delete(tmp);
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+    }
+
+    private boolean matches(String key, Header header) {
+        String value = properties.getProperty(key);
+        return value == null || header == null || value.equals(header.getValue());
+    }
+
+    private static void setHeader(Properties properties, String key, Header header) {
+        if (header != null) {
+            properties.setProperty(key, header.getValue());
+        }
+    }
+
+    private static String getSuffix(MusicDirectory.Entry song) {
+        String suffix = song.getTranscodedSuffix() == null ? song.getSuffix() : song.getTranscodedSuffix();
+        return suffix == null ? "" : suffix;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+import github.madmarty.madsonic.domain.MusicDirectory;
+import github.madmarty.madsonic.util.CancellableTask;
+import github.madmarty.madsonic.util.Util;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+/**
+ * Downloads a large file as several byte ranges in parallel, into a file that is allocated
+ * up front.  The segment at the play head is always fetched first, so that playback of the
+ * contiguous start of the file keeps going.
+ *
+ * @author Sindre Mehus
+ */
+public class SegmentedDownload {
+
+    private static final String TAG = SegmentedDownload.class.getSimpleName();
+    private static final long MIN_FILE_SIZE = 16L * 1024L * 1024L;
+    private static final long SEGMENT_SIZE = 2L * 1024L * 1024L;
+    private static final int CONNECTIONS = 3;
+
+    // A failed segment is retried this many times before the whole download fails, with a growing delay.
+    private static final int MAX_SEGMENT_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+
+    // How often the download file's status is updated with the progress.
+    private static final long STATUS_INTERVAL_MILLIS = 500L;
+
+    private final Context context;
+    private final MusicService musicService;
+    private final DownloadFile downloadFile;
+    private final File file;
+    private final long size;
+
+    // Bytes received, whether a worker has taken each segment, and how often it failed.  Guarded by this.
+    private final long[] received;
+    private final boolean[] taken;
+    private final int[] failures;
+    private final List<SegmentTask> tasks = new ArrayList<SegmentTask>();
+    private int running;
+    private boolean rangesIgnored;
+    private Exception error;
+    private volatile boolean cancelled;
+
+    public SegmentedDownload(Context context, MusicService musicService, DownloadFile downloadFile, File file) {
+        this.context = context;
+        this.musicService = musicService;
+        this.downloadFile = downloadFile;
+        this.file = file;
+        size = downloadFile.getSong().getSize();
+
+        int segments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        received = new long[segments];
+        taken = new boolean[segments];
+        failures = new int[segments];
+    }
+
+    /**
+     * Returns whether the given song should be downloaded in segments.  Only large files that
+     * are not transcoded qualify, since the byte ranges of a transcoded stream are not stable.
+     */
+    public static boolean isSupported(Context context, MusicDirectory.Entry song, int bitRate) {
+        if (!Util.isSegmentedDownloads(context) || Util.isOffline(context) || bitRate != 0) {
+            return false;
+        }
+        Long size = song.getSize();
+        String transcodedSuffix = song.getTranscodedSuffix();
+        return size != null && size >= MIN_FILE_SIZE &&
+               (transcodedSuffix == null || transcodedSuffix.equalsIgnoreCase(song.getSuffix()));
+    }
+
+    /**
+     * Downloads all segments.  Cancelling the given task stops the download.
+     *
+     * @return Whether the file was downloaded, or <code>false</code> if the server doesn't support
+     *         byte ranges and the file should be downloaded sequentially.
+     */
+    public boolean run(CancellableTask parent) throws Exception {
+        parent.setOnCancelListener(new CancellableTask.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                cancel();
+            }
+        });
+        if (parent.isCancelled()) {
+            return true;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // Sparse on most file systems, so this doesn't write anything.
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+
+            synchronized (this) {
+                for (int i = 0; i < Math.min(CONNECTIONS, received.length); i++) {
+                    SegmentTask task = new SegmentTask(channel);
+                    tasks.add(task);
+                    running++;
+                    task.start();
+                }
+                while (running > 0) {
+                    wait(STATUS_INTERVAL_MILLIS);
+                    downloadFile.setDownloadedBytes(getContiguousLength());
+                }
+            }
+
+            if (error != null) {
+                throw error;
+            }
+            if (rangesIgnored) {
+                return false;
+            }
+            channel.force(false);
+            Log.i(TAG, "Downloaded " + Util.formatBytes(size) + " of " + downloadFile.getSong() + " in " + received.length + " segments");
+            return true;
+        } finally {
+            Util.close(raf);
+        }
+    }
+
+    /**
+     * Returns the number of bytes from the start of the file that have been received without gaps.
+     */
+    public synchronized long getContiguousLength() {
+        long length = 0L;
+        for (int i = 0; i < received.length; i++) {
+            length += received[i];
+            if (received[i] < getSegmentLength(i)) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private void cancel() {
+        cancelled = true;
+        List<SegmentTask> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<SegmentTask>(this.tasks);
+        }
+        for (SegmentTask task : tasks) {
+            task.cancel();
+        }
+    }
+
+    private long getSegmentLength(int segment) {
+        return Math.min(SEGMENT_SIZE, size - segment * SEGMENT_SIZE);
+    }
+
+    /**
+     * Takes the first segment at or after the play head that nobody is working on, or else the
+     * first such segment in the file.
+     *
+     * @return The segment, or -1 if there are none left.
+     */
+    private int takeSegment() {
+        int first = (int) Math.min(downloadFile.getPlayHeadOffset() / SEGMENT_SIZE, received.length - 1);
+        synchronized (this) {
+            if (cancelled || error != null || rangesIgnored) {
+                return -1;
+            }
+            for (int i = 0; i < received.length; i++) {
+                int segment = (first + i) % received.length;
+                if (!taken[segment]) {
+                    taken[segment] = true;
+                    return segment;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Puts a failed segment back, so that it's downloaded again from its start, by any worker.
+     *
+     * @return The number of times the segment has failed, or -1 if it shouldn't be retried.
+     */
+    private synchronized int onSegmentFailed(int segment, Exception x) {
+        failures[segment]++;
+        if (failures[segment] >= MAX_SEGMENT_ATTEMPTS) {
+            return -1;
+        }
+        Log.w(TAG, "Failed to download segment " + segment + " of " + downloadFile.getSong() + ", retrying: " + x);
+        received[segment] = 0L;
+        taken[segment] = false;
+        return failures[segment];
+    }
+
+    private synchronized void onTaskDone(Exception x) {
+        if (x != null && error == null && !cancelled) {
+            error = x;
+        }
+        running--;
+        notifyAll();
+    }
+
+    private class SegmentTask extends CancellableTask {
+        private final FileChannel channel;
+
+        SegmentTask(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void execute() {
+            Exception failure = null;
+            try {
+                int segment;
+                while (!isCancelled() && (segment = takeSegment()) != -1) {
+                    try {
+                        download(segment);
+                    } catch (Exception x) {
+                        if (isCancelled()) {
+                            throw x;
+                        }
+                        int failures = onSegmentFailed(segment, x);
+                        if (failures == -1) {
+                            throw x;
+                        }
+                        Util.sleepQuietly(failures * RETRY_DELAY_MILLIS);
+                    }
+                }
+            } catch (Exception x) {
+                if (!isCancelled()) {
+                    Log.w(TAG, "Failed to download segment of " + downloadFile.getSong(), x);
+                    failure = x;
+                }
+            } finally {
+                onTaskDone(failure);
+            }
+        }
+
+        private void download(int segment) throws Exception {
+            long start = segment * SEGMENT_SIZE;
+            long length = getSegmentLength(segment);
+
+            HttpResponse response = musicService.getDownloadRangeInputStream(context, downloadFile.getSong(), start, length, this);
+            InputStream in = response.getEntity().getContent();
+            ByteBuffer buffer = DownloadFile.acquireBuffer();
+            try {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                    Log.i(TAG, "Server ignored range request for " + downloadFile.getSong());
+                    synchronized (SegmentedDownload.this) {
+                        rangesIgnored = true;
+                    }
+
+                    // Abort all requests, rather than reading the whole file when closing them.
+                    SegmentedDownload.this.cancel();
+                    return;
+                }
+
+                long position = start;
+                long end = start + length;
+                while (position < end && !isCancelled()) {
+                    int n = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - position));
+                    if (n == -1) {
+                        throw new IOException("Segment " + segment + " of " + downloadFile.getSong() + " ended after " + (position - start) + " bytes");
+                    }
+                    buffer.clear();
+                    buffer.limit(n);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    synchronized (SegmentedDownload.this) {
+                        received[segment] += n;
+                    }
+                    BandwidthShaper.throttle(context, downloadFile, n, this);
+                }
+            } finally {
+                DownloadFile.releaseBuffer(buffer);
+                Util.close(in);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SegmentTask (" + downloadFile.getSong() + ")";
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import github.madmarty.madsonic.domain.MusicDirectory;
+
+/**
+ * Disk cache of album art, pre-sized for each place it is shown, e.g., list thumbnails, the large
+ * now-playing image and the widget.  Entries are keyed by server, cover art id and size, so they are
+ * found without asking the server, even after a restart.
+ * <p/>
+ * The cache has its own budget, separate from the music cache.  The least recently used images are
+ * evicted first; the file modification time records when an image was last used.
+ *
+ * @author Sindre Mehus
+ */
+public class ArtworkCache {
+
+    private static final String TAG = ArtworkCache.class.getSimpleName();
+    private static final long MAX_BYTES = 20L * 1024L * 1024L;
+    private static final int JPEG_QUALITY = 90;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final ArtworkCache INSTANCE = new ArtworkCache();
+
+    // File name to size, least recently used first.
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75F, true);
+    private long bytes;
+    private boolean loaded;
+
+    public static ArtworkCache getInstance() {
+        return INSTANCE;
+    }
+
+    private ArtworkCache() {
+    }
+
+    public static File getDirectory() {
+        File dir = new File(FileUtil.getSubsonicDirectory(), "artcache");
+        FileUtil.ensureDirectoryExistsAndIsReadWritable(dir);
+        FileUtil.ensureDirectoryExistsAndIsReadWritable(new File(dir, ".nomedia"));
+        return dir;
+    }
+
+    /**
+     * Returns the cached image of the given entry and size, or {@code null} if not cached.
+     */
+    public Bitmap get(Context context, MusicDirectory.Entry entry, int size) {
+        return get(context, entry, size, size, null);
+    }
+
+    /**
+     * Returns whether the image of the given entry and size is cached, without decoding it.
+     */
+    public boolean contains(Context context, MusicDirectory.Entry entry, int size) {
+        String name = getName(context, entry, size, null);
+        if (name == null) {
+            return false;
+        }
+        synchronized (this) {
+            ensureLoaded();
+            return files.containsKey(name);
+        }
+    }
+
+    /**
+     * Returns a cached variant of the image of the given entry, e.g., with a reflection, or {@code null} if not cached.
+     *
+     * @param size    The size of the original image.
+     * @param height  The height of the variant.
+     * @param variant Name of the variant.
+     */
+    public Bitmap get(Context context, MusicDirectory.Entry entry, int size, int height, String variant) {
+        String name = getName(context, entry, size, variant);
+        if (name == null) {
+            return null;
+        }
+
+        File file = new File(getDirectory(), name);
+        synchronized (this) {
+            ensureLoaded();
+            if (files.get(name) == null) {
+                return null;
+            }
+        }
+
+        Bitmap bitmap = BitmapDecoder.decodeFile(file.getPath(), size, height);
+        if (bitmap == null) {
+            Log.w(TAG, "Failed to decode " + file);
+            remove(name);
+            Util.delete(file);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Stores the given image, which should be of the given size.
+     */
+    public void put(Context context, MusicDirectory.Entry entry, int size, Bitmap bitmap) {
+        put(context, entry, size, null, bitmap);
+    }
+
+    /**
+     * Stores a variant of the image of the given entry and size.
+     */
+    public void put(Context context, MusicDirectory.Entry entry, int size, String variant, Bitmap bitmap) {
+        String name = getName(context, entry, size, variant);
+        if (name == null || bitmap == null) {
+            return;
+        }
+
+        File dir = getDirectory();
+        File file = new File(dir, name);
+        File tmp = new File(dir, name + TEMP_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            if (!bitmap.compress(format, JPEG_QUALITY, out)) {
+                throw new Exception("Failed to compress bitmap.");
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new Exception("Failed to rename " + tmp + " to " + file);
+            }
+        } catch (Exception x) {
+            Log.w(TAG, "Failed to cache album art " + file, x);
+            Util.close(out);
+            Util.delete(tmp);
+            return;
+        }
+
+        synchronized (this) {
+            ensureLoaded();
+            Long previous = files.put(name, file.length());
+            if (previous != null) {
+                bytes -= previous;
+            }
+            bytes += file.length();
+            evict(dir);
+        }
+    }
+
+    public synchronized long getSizeInBytes() {
+        ensureLoaded();
+        return bytes;
+    }
+
+    private synchronized void remove(String name) {
+        Long size = files.remove(name);
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    private void evict(File dir) {
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (bytes > MAX_BYTES && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            Util.delete(new File(dir, entry.getKey()));
+            bytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        File dir = getDirectory();
+        File[] children = dir.listFiles();
+        if (children != null) {
+            Arrays.sort(children, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long x = a.lastModified();
+                    long y = b.lastModified();
+                    return x < y ? -1 : x > y ? 1 : 0;
+                }
+            });
+            for (File file : children) {
+                if (file.isDirectory()) {
+                    continue;
+                }
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    Util.delete(file);
+                    continue;
+                }
+                files.put(file.getName(), file.length());
+                bytes += file.length();
+            }
+        }
+        loaded = true;
+        evict(dir);
+        Log.i(TAG, "Loaded artwork cache with " + files.size() + " images, " + bytes / 1024L + " KB.");
+    }
+
+    /**
+     * Returns the file name of the given image.  Cover art ids are only unique per server.
+     */
+    private static String getName(Context context, MusicDirectory.Entry entry, int size, String variant) {
+        String coverArt = entry.getCoverArt();
+        if (coverArt == null) {
+            return null;
+        }
+        String scope = Util.isOffline(context) ? "offline" : Util.getPreferences(context).getString(
+                Constants.PREFERENCES_KEY_SERVER_URL + Util.getActiveServer(context), null);
+        return Util.md5Hex(scope + "/" + coverArt) + "-" + size + (variant == null ? "" : "-" + variant);
+    }
+}
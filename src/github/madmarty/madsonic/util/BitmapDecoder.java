@@ -0,0 +1,269 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Decodes album art directly to (near) the requested size.
+ * <p/>
+ * The image bounds are read first, and the largest power-of-two subsampling that keeps the image
+ * at least as large as requested is applied while decoding, so the full-resolution image is never
+ * held in memory.  The result is then scaled to the exact size.  The intermediate bitmaps are kept
+ * in a small pool and decoded into again if an image of the same dimensions comes along (API 11+).
+ *
+ * @author Sindre Mehus
+ */
+public final class BitmapDecoder {
+
+    private static final String TAG = BitmapDecoder.class.getSimpleName();
+    private static final BitmapPool POOL = new BitmapPool(4L * 1024L * 1024L);
+
+    // Statistics.
+    private static int decodeCount;
+    private static long decodeMillis;
+    private static long decodedBytes;
+    private static long fullSizeBytes;
+
+    static {
+        CacheManager.getInstance().register("Bitmap pool", POOL, CacheManager.Priority.LOW);
+    }
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decodes the given image file to a bitmap of size x size pixels.
+     *
+     * @return The bitmap, or {@code null} if the file could not be decoded.
+     */
+    public static Bitmap decodeFile(String path, int size) {
+        return decodeFile(path, size, size);
+    }
+
+    /**
+     * Decodes the given image file to a bitmap of the given dimensions.
+     *
+     * @return The bitmap, or {@code null} if the file could not be decoded.
+     */
+    public static Bitmap decodeFile(final String path, int targetWidth, int targetHeight) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(path, options);
+            }
+        }, targetWidth, targetHeight);
+    }
+
+    /**
+     * Decodes the given image data to a bitmap of size x size pixels.
+     *
+     * @return The bitmap, or {@code null} if the data could not be decoded.
+     */
+    public static Bitmap decodeByteArray(final byte[] bytes, int size) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            }
+        }, size, size);
+    }
+
+    private static Bitmap decode(Source source, int targetWidth, int targetHeight) {
+        long t0 = System.currentTimeMillis();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = getSampleSize(width, height, targetWidth, targetHeight);
+        Bitmap bitmap = decode(source, options, width, height);
+        if (bitmap == null) {
+            return null;
+        }
+
+        // Measured now, since the bitmap may be recycled or reused once it's scaled.
+        long decodedSize = (long) bitmap.getRowBytes() * bitmap.getHeight();
+
+        Bitmap result = bitmap;
+        if (bitmap.getWidth() != targetWidth || bitmap.getHeight() != targetHeight) {
+            result = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            if (result != bitmap) {
+                release(bitmap);
+            }
+        }
+
+        updateStatistics(System.currentTimeMillis() - t0, decodedSize, 4L * width * height);
+        return result;
+    }
+
+    @TargetApi(11)
+    private static Bitmap decode(Source source, BitmapFactory.Options options, int width, int height) {
+        if (Build.VERSION.SDK_INT >= 11 && options.inSampleSize == 1) {
+            options.inMutable = true;
+            Bitmap reusable = POOL.take(width, height);
+            if (reusable != null) {
+                options.inBitmap = reusable;
+                try {
+                    Bitmap bitmap = source.decode(options);
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                } catch (IllegalArgumentException x) {
+                    // The image can't be decoded into an existing bitmap, e.g., because of its format.
+                    Log.d(TAG, "Failed to reuse bitmap: " + x);
+                }
+                options.inBitmap = null;
+                reusable.recycle();
+            }
+        }
+        return source.decode(options);
+    }
+
+    /**
+     * Returns the largest power of two that keeps both dimensions at least as large as requested.
+     */
+    private static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Hands an intermediate bitmap back to the pool, or frees it right away if it can't be reused.
+     */
+    private static void release(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT < 11 || !bitmap.isMutable() || !POOL.put(bitmap)) {
+            bitmap.recycle();
+        }
+    }
+
+    private static synchronized void updateStatistics(long millis, long decodedSize, long fullSize) {
+        decodeCount++;
+        decodeMillis += millis;
+        decodedBytes += decodedSize;
+        fullSizeBytes += fullSize;
+        if (decodeCount % 50 == 0) {
+            Log.i(TAG, "Decoded " + decodeCount + " images, " + (decodeMillis / decodeCount) + " ms and " +
+                    (decodedBytes / decodeCount / 1024L) + " KB per image on average, compared to " +
+                    (fullSizeBytes / decodeCount / 1024L) + " KB at full size.");
+        }
+    }
+
+    private static interface Source {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    /**
+     * Unused bitmaps by dimensions, bounded by total size.
+     */
+    private static class BitmapPool implements CacheManager.ManagedCache {
+
+        private final long maxBytes;
+        private final Map<String, LinkedList<Bitmap>> bitmaps = new HashMap<String, LinkedList<Bitmap>>();
+        private long bytes;
+
+        BitmapPool(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Bitmap take(int width, int height) {
+            LinkedList<Bitmap> list = bitmaps.get(getKey(width, height));
+            if (list == null || list.isEmpty()) {
+                return null;
+            }
+            Bitmap bitmap = list.removeFirst();
+            bytes -= sizeOf(bitmap);
+            return bitmap;
+        }
+
+        synchronized boolean put(Bitmap bitmap) {
+            long size = sizeOf(bitmap);
+            if (size > maxBytes) {
+                return false;
+            }
+            trimTo(maxBytes - size);
+
+            String key = getKey(bitmap.getWidth(), bitmap.getHeight());
+            LinkedList<Bitmap> list = bitmaps.get(key);
+            if (list == null) {
+                list = new LinkedList<Bitmap>();
+                bitmaps.put(key, list);
+            }
+            list.addLast(bitmap);
+            bytes += size;
+            return true;
+        }
+
+        @Override
+        public synchronized long getSizeInBytes() {
+            return bytes;
+        }
+
+        @Override
+        public long getMaxSizeInBytes() {
+            return maxBytes;
+        }
+
+        @Override
+        public synchronized void trim(float fraction) {
+            trimTo((long) (maxBytes * fraction));
+        }
+
+        private void trimTo(long targetBytes) {
+            Iterator<LinkedList<Bitmap>> iterator = bitmaps.values().iterator();
+            while (bytes > targetBytes && iterator.hasNext()) {
+                LinkedList<Bitmap> list = iterator.next();
+                while (bytes > targetBytes && !list.isEmpty()) {
+                    Bitmap bitmap = list.removeFirst();
+                    bytes -= sizeOf(bitmap);
+                    bitmap.recycle();
+                }
+                if (list.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private static String getKey(int width, int height) {
+            return width + "x" + height;
+        }
+
+        private static long sizeOf(Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+}
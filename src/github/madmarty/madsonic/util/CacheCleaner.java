@@ -13,6 +13,8 @@ import android.util.Log;
 import android.os.StatFs;
 import github.madmarty.madsonic.service.DownloadFile;
 import github.madmarty.madsonic.service.DownloadService;
+import github.madmarty.madsonic.service.OfflineCatalog;
+import github.madmarty.madsonic.service.ResumeManifest;
 
 /**
  * @author Sindre Mehus
@@ -42,15 +44,17 @@ public class CacheCleaner {
 
         try {
 
-            List<File> files = new ArrayList<File>();
-            List<File> dirs = new ArrayList<File>();
-
-            findCandidatesForDeletion(FileUtil.getMusicDirectory(context), files, dirs);
+            OfflineCatalog catalog = OfflineCatalog.getInstance(context);
+            List<OfflineCatalog.Item> files = findCandidatesForDeletion(catalog.getFiles());
+            List<File> dirs = catalog.getDirectories();
             sortByAscendingModificationTime(files);
+            sortByDescendingDepth(dirs);
 
             Set<File> undeletable = findUndeletableFiles();
 
-            deleteFiles(files, undeletable);
+            if (deleteFiles(files, undeletable)) {
+                DownloadFile.refreshStatuses();
+            }
             deleteEmptyDirs(dirs, undeletable);
             Log.i(TAG, "Completed cache cleaning.");
 
@@ -68,28 +72,31 @@ public class CacheCleaner {
             File[] children = dir.listFiles();
 
             // Delete empty directory and associated album artwork.
-            if (children.length == 0) {
+            if (children != null && children.length == 0) {
                 Util.delete(dir);
                 Util.delete(FileUtil.getAlbumArtFile(dir));
             }
         }
     }
 
-    private void deleteFiles(List<File> files, Set<File> undeletable) {
+    /**
+     * @return Whether any files were deleted.
+     */
+    private boolean deleteFiles(List<OfflineCatalog.Item> files, Set<File> undeletable) {
 
         if (files.isEmpty()) {
-            return;
+            return false;
         }
 
         long cacheSizeBytes = Util.getCacheSizeMB(context) * 1024L * 1024L;
 
         long bytesUsedBySubsonic = 0L;
-        for (File file : files) {
-            bytesUsedBySubsonic += file.length();
+        for (OfflineCatalog.Item item : files) {
+            bytesUsedBySubsonic += item.getSize();
         }
 
         // Ensure that file system is not more than 95% full.
-        StatFs stat = new StatFs(files.get(0).getPath());
+        StatFs stat = new StatFs(FileUtil.getMusicDirectory(context).getPath());
         long bytesTotalFs = (long) stat.getBlockCount() * (long) stat.getBlockSize();
         long bytesAvailableFs = (long) stat.getAvailableBlocks() * (long) stat.getBlockSize();
         long bytesUsedFs = bytesTotalFs - bytesAvailableFs;
@@ -105,7 +112,9 @@ public class CacheCleaner {
         Log.i(TAG, "Minimum to delete : " + Util.formatBytes(bytesToDelete));
 
         long bytesDeleted = 0L;
-        for (File file : files) {
+        boolean deleted = false;
+        for (OfflineCatalog.Item item : files) {
+            File file = item.getFile();
 
             if (file.getName().equals(Constants.ALBUM_ART_FILE)) {
                 // Move artwork to new folder.
@@ -113,9 +122,10 @@ public class CacheCleaner {
 
             } else if (bytesToDelete > bytesDeleted || file.getName().endsWith(".partial") || file.getName().contains(".partial.")) {
                 if (!undeletable.contains(file)) {
-                    long size = file.length();
                     if (Util.delete(file)) {
-                        bytesDeleted += size;
+                        deleted = true;
+                        bytesDeleted += item.getSize();
+                        ResumeManifest.delete(file);
                     }
                 }
             }
@@ -123,33 +133,30 @@ public class CacheCleaner {
 
         Log.i(TAG, "Deleted           : " + Util.formatBytes(bytesDeleted));
         Log.i(TAG, "Cache size after  : " + Util.formatBytes(bytesUsedBySubsonic - bytesDeleted));
+        return deleted;
     }
 
-    private void findCandidatesForDeletion(File file, List<File> files, List<File> dirs) {
-        if (file.isFile()) {
-            String name = file.getName();
+    private List<OfflineCatalog.Item> findCandidatesForDeletion(List<OfflineCatalog.Item> items) {
+        List<OfflineCatalog.Item> files = new ArrayList<OfflineCatalog.Item>();
+        for (OfflineCatalog.Item item : items) {
+            String name = item.getFile().getName();
             boolean isCacheFile = name.endsWith(".partial") || name.contains(".partial.") || name.endsWith(".complete") || name.contains(".complete.");
             boolean isAlbumArtFile = name.equals(Constants.ALBUM_ART_FILE);
             if (isCacheFile || isAlbumArtFile) {
-                files.add(file);
-            }
-        } else {
-            // Depth-first
-            for (File child : FileUtil.listFiles(file)) {
-                findCandidatesForDeletion(child, files, dirs);
+                files.add(item);
             }
-            dirs.add(file);
         }
+        return files;
     }
 
-    private void sortByAscendingModificationTime(List<File> files) {
-        Collections.sort(files, new Comparator<File>() {
+    private void sortByAscendingModificationTime(List<OfflineCatalog.Item> files) {
+        Collections.sort(files, new Comparator<OfflineCatalog.Item>() {
             @Override
-            public int compare(File a, File b) {
-                if (a.lastModified() < b.lastModified()) {
+            public int compare(OfflineCatalog.Item a, OfflineCatalog.Item b) {
+                if (a.getLastModified() < b.getLastModified()) {
                     return -1;
                 }
-                if (a.lastModified() > b.lastModified()) {
+                if (a.getLastModified() > b.getLastModified()) {
                     return 1;
                 }
                 return 0;
@@ -157,6 +164,25 @@ public class CacheCleaner {
         });
     }
 
+    // Subdirectories must be visited before their parents, so that they can be emptied in one pass.
+    private void sortByDescendingDepth(List<File> dirs) {
+        Collections.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return depth(b) - depth(a);
+            }
+        });
+    }
+
+    private static int depth(File file) {
+        String path = file.getPath();
+        int depth = 0;
+        for (int i = path.indexOf(File.separatorChar); i != -1; i = path.indexOf(File.separatorChar, i + 1)) {
+            depth++;
+        }
+        return depth;
+    }
+
     private Set<File> findUndeletableFiles() {
         Set<File> undeletable = new HashSet<File>(5);
 
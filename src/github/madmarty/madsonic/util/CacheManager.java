@@ -0,0 +1,233 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Keeps track of the in-memory caches of the app, so that they can be shrunk when the system runs low on memory.
+ * <p/>
+ * Each cache has an explicit budget in bytes, and a priority that says how expensive its content is to get back.
+ * When memory is needed, the caches are trimmed in tiers, depending on how severe the situation is:
+ * low priority caches first, high priority caches only when the process is about to be killed.
+ *
+ * @author Sindre Mehus
+ */
+public class CacheManager {
+
+    private static final String TAG = CacheManager.class.getSimpleName();
+    private static final CacheManager INSTANCE = new CacheManager();
+
+    public static enum Priority {
+        /**
+         * Cheap to reload, e.g., images that are also cached on disk.
+         */
+        LOW,
+
+        /**
+         * Requires a server round trip to reload.
+         */
+        NORMAL,
+
+        /**
+         * Small, but expensive to reload, or needed to keep the current screen working.
+         */
+        HIGH
+    }
+
+    // Weak keys, so that caches of discarded objects don't stay registered.
+    private final Map<ManagedCache, Registration> caches = new WeakHashMap<ManagedCache, Registration>();
+
+    public static CacheManager getInstance() {
+        return INSTANCE;
+    }
+
+    private CacheManager() {
+    }
+
+    /**
+     * Returns the given fraction of the heap available to the app, for use as a cache budget.
+     */
+    public static long getMemoryBudget(Context context, float fraction) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClass = activityManager.getMemoryClass() * 1024L * 1024L;
+        return (long) (memoryClass * fraction);
+    }
+
+    public synchronized void register(String name, ManagedCache cache, Priority priority) {
+        caches.put(cache, new Registration(name, priority));
+    }
+
+    /**
+     * Shrinks the caches according to the given level, as passed to {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    public void onTrimMemory(int level) {
+        List<Map.Entry<ManagedCache, Registration>> entries;
+        synchronized (this) {
+            entries = new ArrayList<Map.Entry<ManagedCache, Registration>>(caches.entrySet());
+        }
+
+        long before = 0L;
+        long after = 0L;
+        for (Map.Entry<ManagedCache, Registration> entry : entries) {
+            ManagedCache cache = entry.getKey();
+            if (cache == null) {
+                continue;
+            }
+            float fraction = getFractionToKeep(level, entry.getValue().priority);
+            before += cache.getSizeInBytes();
+            if (fraction < 1.0F) {
+                cache.trim(fraction);
+            }
+            after += cache.getSizeInBytes();
+        }
+        Log.i(TAG, "Trimmed caches for memory level " + level + " from " + before / 1024L + " KB to " + after / 1024L + " KB.");
+        logUsage();
+    }
+
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Returns how much of its budget a cache may keep at the given memory level.
+     */
+    private static float getFractionToKeep(int level, Priority priority) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                return priority == Priority.LOW ? 0.75F : 1.0F;
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+                return priority == Priority.LOW ? 0.5F : 1.0F;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+                return priority == Priority.LOW ? 0.5F : priority == Priority.NORMAL ? 0.75F : 1.0F;
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                return priority == Priority.LOW ? 0.25F : priority == Priority.NORMAL ? 0.5F : 1.0F;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                return priority == Priority.LOW ? 0.0F : priority == Priority.NORMAL ? 0.5F : 0.75F;
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                return priority == Priority.LOW ? 0.0F : priority == Priority.NORMAL ? 0.25F : 0.5F;
+            default:
+                // Unknown levels are higher than the ones above.
+                return level > ComponentCallbacks2.TRIM_MEMORY_MODERATE ? 0.0F : 1.0F;
+        }
+    }
+
+    /**
+     * Returns the current usage of each registered cache.
+     */
+    public synchronized List<Usage> getUsage() {
+        List<Usage> result = new ArrayList<Usage>();
+        for (Map.Entry<ManagedCache, Registration> entry : caches.entrySet()) {
+            ManagedCache cache = entry.getKey();
+            if (cache != null) {
+                Registration registration = entry.getValue();
+                result.add(new Usage(registration.name, registration.priority, cache.getSizeInBytes(), cache.getMaxSizeInBytes()));
+            }
+        }
+        return result;
+    }
+
+    public void logUsage() {
+        for (Usage usage : getUsage()) {
+            Log.i(TAG, usage.toString());
+        }
+    }
+
+    /**
+     * A cache that can be managed by {@link CacheManager}.
+     */
+    public static interface ManagedCache {
+
+        /**
+         * Returns the estimated number of bytes held by the cache.
+         */
+        long getSizeInBytes();
+
+        /**
+         * Returns the budget of the cache, in bytes.
+         */
+        long getMaxSizeInBytes();
+
+        /**
+         * Evicts entries until at most the given fraction of the budget is used.
+         */
+        void trim(float fraction);
+    }
+
+    /**
+     * Estimates the number of bytes held by a cached value.
+     */
+    public static interface Sizer<T> {
+        long sizeOf(T value);
+    }
+
+    public static class Usage {
+        private final String name;
+        private final Priority priority;
+        private final long sizeInBytes;
+        private final long maxSizeInBytes;
+
+        Usage(String name, Priority priority, long sizeInBytes, long maxSizeInBytes) {
+            this.name = name;
+            this.priority = priority;
+            this.sizeInBytes = sizeInBytes;
+            this.maxSizeInBytes = maxSizeInBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public long getSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        public long getMaxSizeInBytes() {
+            return maxSizeInBytes;
+        }
+
+        @Override
+        public String toString() {
+            String max = maxSizeInBytes == Long.MAX_VALUE ? "unbounded" : (maxSizeInBytes / 1024L) + " KB";
+            return name + " (" + priority + "): " + sizeInBytes / 1024L + " KB of " + max;
+        }
+    }
+
+    private static class Registration {
+        private final String name;
+        private final Priority priority;
+
+        Registration(String name, Priority priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+    }
+}
@@ -74,9 +74,14 @@ public final class Constants {
     public static final String PREFERENCES_KEY_HIDE_MEDIA = "hideMedia";
     public static final String PREFERENCES_KEY_MEDIA_BUTTONS = "mediaButtons";
     public static final String PREFERENCES_KEY_SCREEN_LIT_ON_DOWNLOAD = "screenLitOnDownload";
+    public static final String PREFERENCES_KEY_OFFHEAP_THUMBNAILS = "offHeapThumbnails";
     public static final String PREFERENCES_KEY_SCROBBLE = "scrobble";
     public static final String PREFERENCES_KEY_REPEAT_MODE = "repeatMode";
     public static final String PREFERENCES_KEY_WIFI_REQUIRED_FOR_DOWNLOAD = "wifiRequiredForDownload";
+    public static final String PREFERENCES_KEY_SEGMENTED_DOWNLOADS = "segmentedDownloads";
+    public static final String PREFERENCES_KEY_SAVE_ON_WIFI_WHILE_CHARGING = "saveOnWifiWhileCharging";
+    public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_WIFI = "downloadLimitWifi";
+    public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_MOBILE = "downloadLimitMobile";
     public static final String PREFERENCES_KEY_BUFFER_LENGTH = "bufferLength";
 	public static final String PREFERENCES_KEY_RANDOM_SIZE = "randomSize";
 
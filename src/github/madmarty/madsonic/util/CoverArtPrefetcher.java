@@ -0,0 +1,145 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.util.Log;
+import github.madmarty.madsonic.domain.MusicDirectory;
+import github.madmarty.madsonic.service.DownloadFile;
+import github.madmarty.madsonic.service.MusicServiceFactory;
+import github.madmarty.madsonic.service.PlayQueue;
+
+/**
+ * Downloads and saves the cover art of queued songs ahead of the songs themselves, so that
+ * it is available if the network goes away.
+ * <p/>
+ * The queue is only scanned when it has changed, or when a cover is due to be checked again.  Covers
+ * are checked again after a while, since they may have been evicted from the cache in the meantime.
+ *
+ * @author Sindre Mehus
+ */
+public class CoverArtPrefetcher {
+
+    private static final String TAG = CoverArtPrefetcher.class.getSimpleName();
+    private static final int CONCURRENCY = 2;
+    private static final long RECHECK_INTERVAL_MILLIS = 10L * 60L * 1000L;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENCY);
+
+    // When the cover art of each queued song was last requested, by cover art id, for the current server.
+    // Covers of songs that are no longer queued are dropped.  Guarded by this.
+    private final Map<String, Long> requested = new HashMap<String, Long>();
+    private final Context context;
+    private int currentServer;
+    private long lastRevision = -1L;
+    private long nextScan;
+
+    public CoverArtPrefetcher(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Queues the cover art of the downloads in the given snapshot, those that are to be saved first.
+     */
+    public synchronized void prefetch(PlayQueue.Snapshot snapshot) {
+        if (Util.isOffline(context)) {
+            return;
+        }
+        if (currentServer != Util.getActiveServer(context)) {
+            currentServer = Util.getActiveServer(context);
+            requested.clear();
+            lastRevision = -1L;
+        }
+
+        long now = System.currentTimeMillis();
+        if (snapshot.getRevision() == lastRevision && now < nextScan) {
+            return;
+        }
+        lastRevision = snapshot.getRevision();
+        nextScan = now + RECHECK_INTERVAL_MILLIS;
+
+        List<DownloadFile> downloads = snapshot.getDownloads();
+        List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>(downloads.size());
+        for (DownloadFile downloadFile : downloads) {
+            if (downloadFile.shouldSave()) {
+                songs.add(downloadFile.getSong());
+            }
+        }
+        for (DownloadFile downloadFile : downloads) {
+            if (!downloadFile.shouldSave()) {
+                songs.add(downloadFile.getSong());
+            }
+        }
+
+        Set<String> queued = new HashSet<String>();
+        for (final MusicDirectory.Entry song : songs) {
+            String coverArt = song.getCoverArt();
+            if (coverArt == null || !queued.add(coverArt)) {
+                continue;
+            }
+            Long time = requested.get(coverArt);
+            if (time != null && now < time + RECHECK_INTERVAL_MILLIS) {
+                nextScan = Math.min(nextScan, time + RECHECK_INTERVAL_MILLIS);
+                continue;
+            }
+            requested.put(coverArt, now);
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(song);
+                }
+            });
+        }
+        requested.keySet().retainAll(queued);
+    }
+
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private void fetch(MusicDirectory.Entry song) {
+        int size = Util.getSavedCoverArtSize(context);
+        if (FileUtil.getAlbumArtFile(context, song).exists() || ArtworkCache.getInstance().contains(context, song, size)) {
+            return;
+        }
+
+        try {
+            MusicServiceFactory.getMusicService(context).getCoverArt(context, song, size, true, null);
+        } catch (Exception x) {
+            Log.w(TAG, "Failed to prefetch cover art for " + song, x);
+
+            // Try again when the network is back.  Other errors are not retried.
+            if (!Util.isNetworkConnected(context)) {
+                synchronized (this) {
+                    requested.remove(song.getCoverArt());
+                    lastRevision = -1L;
+                }
+            }
+        }
+    }
+}
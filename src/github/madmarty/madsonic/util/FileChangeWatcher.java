@@ -0,0 +1,51 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.File;
+
+/**
+ * Watches a set of directories for files being created, deleted, moved or rewritten.
+ * <p/>
+ * Watchers are not recursive by themselves.  The owner decides which directories to
+ * watch, typically every directory it has indexed, and calls {@link #watch(File)} and
+ * {@link #unwatch(File)} as the tree changes.
+ *
+ * @author Sindre Mehus
+ */
+public interface FileChangeWatcher {
+
+    void setListener(Listener listener);
+
+    void watch(File dir);
+
+    void unwatch(File dir);
+
+    void stop();
+
+    public static interface Listener {
+
+        /**
+         * Invoked on a background thread whenever something may have changed at the given
+         * path.  Creation, deletion, both sides of a move and rewrites are all reported through
+         * this method, so receivers should stat the path to find out its current state.
+         */
+        void onFileChanged(File file);
+    }
+}
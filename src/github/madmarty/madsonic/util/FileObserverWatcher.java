@@ -0,0 +1,152 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+/**
+ * {@link FileChangeWatcher} backed by the platform's inotify-based {@link FileObserver}.
+ * <p/>
+ * A {@code FileObserver} only covers a single directory, so one is kept per watched directory.
+ * They must be strongly referenced, otherwise they stop delivering events once garbage collected.
+ *
+ * @author Sindre Mehus
+ */
+public class FileObserverWatcher implements FileChangeWatcher {
+
+    private static final String TAG = FileObserverWatcher.class.getSimpleName();
+
+    // Note: MODIFY is left out on purpose, since it fires for every write of a download in progress.
+    private static final int MASK = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM |
+            FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.ATTRIB |
+            FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    // How long to wait for the event of the probe file before giving up on the directory.
+    private static final long PROBE_TIMEOUT_MILLIS = 1000L;
+
+    private final Map<String, DirectoryObserver> observers = new HashMap<String, DirectoryObserver>();
+    private volatile Listener listener;
+
+    /**
+     * Returns whether a {@code FileObserver} delivers events for the given directory.  It fails silently
+     * otherwise, for instance on some emulated storage or when the system runs out of inotify watches,
+     * so this creates a probe file in the directory and waits briefly for the event.
+     */
+    public static boolean canWatch(File dir) {
+        if (!dir.isDirectory()) {
+            return false;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        FileObserver observer = new FileObserver(dir.getPath(), FileObserver.CREATE) {
+            @Override
+            public void onEvent(int event, String path) {
+                latch.countDown();
+            }
+        };
+
+        File probe = null;
+        observer.startWatching();
+        try {
+            probe = File.createTempFile("probe", null, dir);
+            return latch.await(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (IOException x) {
+            // Can't tell without writing to the directory.  Assume it can be watched.
+            Log.w(TAG, "Failed to create probe file in " + dir, x);
+            return true;
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            observer.stopWatching();
+            if (probe != null) {
+                probe.delete();
+            }
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void watch(File dir) {
+        String path = dir.getPath();
+        if (observers.containsKey(path)) {
+            return;
+        }
+        DirectoryObserver observer = new DirectoryObserver(dir);
+        observer.startWatching();
+        observers.put(path, observer);
+    }
+
+    @Override
+    public synchronized void unwatch(File dir) {
+        DirectoryObserver observer = observers.remove(dir.getPath());
+        if (observer != null) {
+            observer.stopWatching();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (DirectoryObserver observer : observers.values()) {
+            observer.stopWatching();
+        }
+        observers.clear();
+        Log.i(TAG, "Stopped watching.");
+    }
+
+    private class DirectoryObserver extends FileObserver {
+
+        private final File dir;
+
+        public DirectoryObserver(File dir) {
+            super(dir.getPath(), MASK);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            Listener listener = FileObserverWatcher.this.listener;
+            if (listener == null) {
+                return;
+            }
+
+            try {
+                if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0 || path == null) {
+                    listener.onFileChanged(dir);
+                } else {
+                    listener.onFileChanged(new File(dir, path));
+                }
+            } catch (Throwable x) {
+                Log.w(TAG, "Error when handling file event " + event + " for " + dir + "/" + path, x);
+            }
+        }
+    }
+}
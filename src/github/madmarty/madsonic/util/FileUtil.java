@@ -32,7 +32,6 @@ import java.util.List;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Environment;
 import android.util.Log;
 import github.madmarty.madsonic.domain.MusicDirectory;
@@ -49,6 +48,15 @@ public class FileUtil {
     private static final File DEFAULT_MUSIC_DIR = createDirectory("music");
 
     public static File getSongFile(Context context, MusicDirectory.Entry song) {
+
+        // Songs found in offline mode are identified by the path of the local file.  Their titles and track
+        // numbers may come from embedded tags, so they can't be used to reconstruct the file name.
+        String id = song.getId();
+        if (id != null && id.startsWith("/") && id.startsWith(getMusicDirectory(context).getPath() + "/")) {
+            File file = new File(id);
+            return new File(file.getParent(), file.getName().replace(".complete", ""));
+        }
+
         File dir = getAlbumDirectory(context, song);
 
         StringBuilder fileName = new StringBuilder();
@@ -92,10 +100,17 @@ public class FileUtil {
     }
 
     public static Bitmap getAlbumArtBitmap(Context context, MusicDirectory.Entry entry, int size) {
+        ArtworkCache artworkCache = ArtworkCache.getInstance();
+        Bitmap bitmap = artworkCache.get(context, entry, size);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
         File albumArtFile = getAlbumArtFile(context, entry);
         if (albumArtFile.exists()) {
-            Bitmap bitmap = BitmapFactory.decodeFile(albumArtFile.getPath());
-            return bitmap == null ? null : Bitmap.createScaledBitmap(bitmap, size, size, true);
+            bitmap = BitmapDecoder.decodeFile(albumArtFile.getPath(), size);
+            artworkCache.put(context, entry, size, bitmap);
+            return bitmap;
         }
         return null;
     }
@@ -244,7 +259,7 @@ public class FileUtil {
         return files;
     }
 
-    private static boolean isMusicFile(File file) {
+    public static boolean isMusicFile(File file) {
         String extension = getExtension(file.getName());
         return MUSIC_FILE_EXTENSIONS.contains(extension);
     }
@@ -18,26 +18,23 @@
  */
 package github.madmarty.madsonic.util;
 
-import android.annotation.TargetApi;
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
-import android.graphics.ComposeShader;
 import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
 import android.graphics.Shader;
-import android.graphics.Shader.TileMode;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
-import android.media.RemoteControlClient;
 import android.os.Handler;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.ImageView;
 import android.widget.TextView;
 import github.madmarty.madsonic.R;
@@ -45,8 +42,14 @@ import github.madmarty.madsonic.domain.MusicDirectory;
 import github.madmarty.madsonic.service.MusicService;
 import github.madmarty.madsonic.service.MusicServiceFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * Asynchronous loading of images, with caching.
@@ -55,24 +58,69 @@ import java.util.concurrent.LinkedBlockingQueue;
  *
  * @author Sindre Mehus
  */
-@TargetApi(14)
 public class ImageLoader implements Runnable {
 
     private static final String TAG = ImageLoader.class.getSimpleName();
     private static final int CONCURRENCY = 5;
+    private static final int QUEUE_CAPACITY = 500;
 
-    private final LRUCache<String, Drawable> cache = new LRUCache<String, Drawable>(100);
-    private final BlockingQueue<Task> queue;
+    private static final int PREFETCH_NONE = 0;
+    private static final int PREFETCH_AHEAD = 1;
+    private static final int PREFETCH_BOTH = 2;
+
+    // Share of the app heap used for cached images.
+    private static final float CACHE_MEMORY_FRACTION = 0.125F;
+
+    // Name of the reflected variant in the artwork cache.
+    private static final String REFLECTION_VARIANT = "reflection";
+
+    // Size of the memory-mapped file for list thumbnails, if enabled.
+    private static final long THUMBNAIL_STORE_SIZE = 32L * 1024L * 1024L;
+
+    private final LRUCache<String, Drawable> cache;
+
+    // List thumbnails outside the Java heap, or null if not enabled.  The cache then only holds large images.
+    private final ThumbnailStore thumbnailStore;
+
+    // The bitmap that each view reads thumbnails from the store into.  Only used on the UI thread.
+    private final Map<View, Bitmap> thumbnailBitmaps = new WeakHashMap<View, Bitmap>();
+
+    // Newest tasks first, since they are most likely to be for rows that are still visible.
+    private final BlockingDeque<Task> queue;
+
+    // Tasks that are queued or running, by cache key.  Requests for the same image are added to the existing task.
+    private final Map<String, Task> inFlight = new HashMap<String, Task>();
+
+    // The key of the image that each view is currently supposed to show.  Guarded by inFlight.
+    private final Map<View, String> bindings = new WeakHashMap<View, String>();
+
+    // When the last list scroll stopped, or zero.  Guarded by inFlight.
+    private long scrollIdleTime;
     private final int imageSizeDefault;
     private final int imageSizeLarge;
-    private Drawable largeUnknownImage;
+    private final ReflectionRenderer reflectionRenderer = new ReflectionRenderer();
+    private volatile Drawable largeUnknownImage;
 
     public ImageLoader(Context context) {
-        queue = new LinkedBlockingQueue<Task>(500);
+        queue = new LinkedBlockingDeque<Task>(QUEUE_CAPACITY);
+
+        // Bounded by bytes only, since the images differ a lot in size.
+        cache = new LRUCache<String, Drawable>(Integer.MAX_VALUE, CacheManager.getMemoryBudget(context, CACHE_MEMORY_FRACTION), new CacheManager.Sizer<Drawable>() {
+            @Override
+            public long sizeOf(Drawable drawable) {
+                if (drawable instanceof BitmapDrawable) {
+                    Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+                    return bitmap == null ? 0L : bitmap.getRowBytes() * bitmap.getHeight();
+                }
+                return 4L * drawable.getIntrinsicWidth() * drawable.getIntrinsicHeight();
+            }
+        });
+        CacheManager.getInstance().register("Images", cache, CacheManager.Priority.LOW);
 
         // Determine the density-dependent image sizes.
         imageSizeDefault = (int) Math.round((context.getResources().getDrawable(R.drawable.unknown_album).getIntrinsicHeight())); //  *  1.25);
     //    Log.d(TAG, "imageSizeDefault: " + imageSizeDefault );
+        thumbnailStore = Util.isOffHeapThumbnails(context) ? ThumbnailStore.create(context, imageSizeDefault, THUMBNAIL_STORE_SIZE) : null;
         
         DisplayMetrics metrics = context.getResources().getDisplayMetrics();
         imageSizeLarge = (int) Math.round(Math.min(metrics.widthPixels, metrics.heightPixels) * 0.6);
@@ -82,53 +130,286 @@ public class ImageLoader implements Runnable {
             new Thread(this, "ImageLoader").start();
         }
 
-        createLargeUnknownImage(context);
+        final Context applicationContext = context.getApplicationContext();
+        new Thread("ImageLoader") {
+            @Override
+            public void run() {
+                createLargeUnknownImage(applicationContext);
+            }
+        }.start();
     }
 
     private void createLargeUnknownImage(Context context) {
         BitmapDrawable drawable = (BitmapDrawable) context.getResources().getDrawable(R.drawable.unknown_album_large);
         Bitmap bitmap = Bitmap.createScaledBitmap(drawable.getBitmap(), imageSizeLarge, imageSizeLarge, true);
-        bitmap = createReflection(bitmap);
+        bitmap = reflectionRenderer.render(bitmap);
         largeUnknownImage = Util.createDrawableFromBitmap(context, bitmap);
     }
 
     public void loadImage(View view, MusicDirectory.Entry entry, boolean large, boolean crossfade) {
         if (entry == null || entry.getCoverArt() == null) {
+            bind(view, null);
             setUnknownImage(view, large);
             return;
         }
 
         int size = large ? imageSizeLarge : imageSizeDefault;
-        Drawable drawable = cache.get(getKey(entry.getCoverArt(), size));
+        String key = getKey(entry.getCoverArt(), size, large);
+        bind(view, key);
+        Drawable drawable = cache.get(key);
         if (drawable != null) {
             setImage(view, drawable, large);
             return;
         }
+        if (!large && setStoredImage(view, key)) {
+            return;
+        }
 
         if (!large) {
             setUnknownImage(view, large);
         }
-        queue.offer(new Task(view.getContext(), view, null, entry, size, large, large, crossfade));
+        enqueue(view.getContext(), entry, size, large, large, new Target(view, crossfade));
     }
 
-    public void loadImage(Context context, RemoteControlClient remoteControl, MusicDirectory.Entry entry) {
-        if (entry == null || entry.getCoverArt() == null) {
-            setUnknownImage(remoteControl);
-            return;
+    /**
+     * Stops loading images for the given view, e.g., when it is recycled for a row without cover art.
+     */
+    public void cancel(View view) {
+        synchronized (inFlight) {
+            bindings.remove(view);
+            Iterator<Task> iterator = inFlight.values().iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                Iterator<Target> targets = task.targets.iterator();
+                while (targets.hasNext()) {
+                    if (targets.next().view == view) {
+                        targets.remove();
+                    }
+                }
+                if (task.targets.isEmpty() && queue.remove(task)) {
+                    iterator.remove();
+                }
+            }
         }
-        
-        Drawable drawable = cache.get(getKey(entry.getCoverArt(), imageSizeDefault));
-        if (drawable != null) {
-            setImage(remoteControl, drawable);
-            return;
+    }
+
+    /**
+     * Loads the list thumbnails of the given albums into the memory cache, after all images that
+     * have been requested for views.
+     */
+    public void prefetch(Context context, List<MusicDirectory.Entry> entries) {
+        synchronized (inFlight) {
+            for (MusicDirectory.Entry entry : entries) {
+                if (entry.getCoverArt() == null) {
+                    continue;
+                }
+                String key = getKey(entry.getCoverArt(), imageSizeDefault, false);
+                if (inFlight.containsKey(key) || cache.get(key) != null || isStored(key)) {
+                    continue;
+                }
+                Task task = new Task(context, key, entry, imageSizeDefault, false, false);
+                task.prefetch = true;
+                if (!queue.offerLast(task)) {
+                    break;
+                }
+                inFlight.put(key, task);
+            }
+        }
+    }
+
+    /**
+     * Drops all pending prefetches, e.g., when leaving a screen.
+     */
+    public void cancelPrefetch() {
+        synchronized (inFlight) {
+            Iterator<Task> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.prefetch && task.targets.isEmpty()) {
+                    iterator.remove();
+                    inFlight.remove(task.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a listener that prefetches the album art of the neighbouring screenfuls of a list
+     * while it scrolls.  It also records when the list stops scrolling, so that the time until its
+     * cover art is shown can be logged.
+     */
+    public AbsListView.OnScrollListener getScrollListener() {
+        return new AbsListView.OnScrollListener() {
+            private int lastFirstVisibleItem = -1;
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                synchronized (inFlight) {
+                    scrollIdleTime = scrollState == SCROLL_STATE_IDLE ? System.currentTimeMillis() : 0L;
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem == lastFirstVisibleItem || visibleItemCount == 0) {
+                    return;
+                }
+                boolean forward = firstVisibleItem > lastFirstVisibleItem;
+                lastFirstVisibleItem = firstVisibleItem;
+
+                int mode = getPrefetchMode(view.getContext());
+                if (mode == PREFETCH_NONE) {
+                    return;
+                }
+
+                List<MusicDirectory.Entry> entries = new ArrayList<MusicDirectory.Entry>();
+                int next = firstVisibleItem + visibleItemCount;
+                int previous = firstVisibleItem - visibleItemCount;
+                if (forward || mode == PREFETCH_BOTH) {
+                    addAlbums(view, next, next + visibleItemCount, entries);
+                }
+                if (!forward || mode == PREFETCH_BOTH) {
+                    addAlbums(view, previous, firstVisibleItem, entries);
+                }
+                prefetch(view.getContext(), entries);
+            }
+        };
+    }
+
+    private static void addAlbums(AbsListView view, int from, int to, List<MusicDirectory.Entry> entries) {
+        for (int i = Math.max(from, 0); i < Math.min(to, view.getCount()); i++) {
+            Object item = view.getItemAtPosition(i);
+            if (item instanceof MusicDirectory.Entry && ((MusicDirectory.Entry) item).isDirectory()) {
+                entries.add((MusicDirectory.Entry) item);
+            }
+        }
+    }
+
+    /**
+     * Prefetches in both directions on Wi-Fi and Ethernet, or when offline, but only in the direction
+     * of scrolling on mobile networks.
+     */
+    private static int getPrefetchMode(Context context) {
+        if (Util.isOffline(context)) {
+            return PREFETCH_BOTH;
+        }
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return PREFETCH_NONE;
+        }
+        int type = networkInfo.getType();
+        return type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET ? PREFETCH_BOTH : PREFETCH_AHEAD;
+    }
+
+    private boolean isStored(String key) {
+        return thumbnailStore != null && thumbnailStore.contains(key);
+    }
+
+    /**
+     * Shows a thumbnail from the off-heap store, reusing the bitmap of the view.
+     *
+     * @return Whether the thumbnail was found.
+     */
+    private boolean setStoredImage(View view, String key) {
+        if (thumbnailStore == null) {
+            return false;
+        }
+        Bitmap bitmap = thumbnailBitmaps.get(view);
+        if (bitmap == null) {
+            bitmap = thumbnailStore.createBitmap();
+        }
+        if (!thumbnailStore.get(key, bitmap)) {
+            return false;
+        }
+        thumbnailBitmaps.put(view, bitmap);
+
+        // A new drawable, so that the view notices that the pixels have changed.
+        setImage(view, new BitmapDrawable(view.getResources(), bitmap), false);
+        return true;
+    }
+
+    private void bind(View view, String key) {
+        synchronized (inFlight) {
+            if (key == null) {
+                bindings.remove(view);
+            } else {
+                bindings.put(view, key);
+            }
+        }
+    }
+
+    private void enqueue(Context context, MusicDirectory.Entry entry, int size, boolean reflection, boolean saveToFile, Target target) {
+        String key = getKey(entry.getCoverArt(), size, reflection);
+        synchronized (inFlight) {
+            Task task = inFlight.get(key);
+            if (task != null) {
+                task.targets.add(target);
+
+                // Move it to the front, unless it's already running.
+                if (queue.remove(task)) {
+                    queue.offerFirst(task);
+                }
+                return;
+            }
+
+            task = new Task(context, key, entry, size, reflection, saveToFile);
+            task.targets.add(target);
+            if (!queue.offerFirst(task)) {
+                // Full.  Drop the oldest request, it's the least likely to be on screen.
+                Task dropped = queue.pollLast();
+                if (dropped != null) {
+                    inFlight.remove(dropped.key);
+                }
+                queue.offerFirst(task);
+            }
+            inFlight.put(key, task);
+        }
+    }
+
+    /**
+     * Returns whether the target still wants the given image.  Views that have been rebound to a different
+     * entry since the request was made are ignored.  Must be called with the inFlight lock held.
+     */
+    private boolean isCurrent(Target target, String key) {
+        return key.equals(bindings.get(target.view));
+    }
+
+    /**
+     * Removes targets that no longer want the image of the given task.
+     *
+     * @return Whether any targets are left.
+     */
+    private boolean pruneTargets(Task task) {
+        synchronized (inFlight) {
+            Iterator<Target> iterator = task.targets.iterator();
+            while (iterator.hasNext()) {
+                if (!isCurrent(iterator.next(), task.key)) {
+                    iterator.remove();
+                }
+            }
+            if (task.targets.isEmpty() && !task.prefetch) {
+                inFlight.remove(task.key);
+                return false;
+            }
+            return true;
         }
+    }
 
-        setUnknownImage(remoteControl);
-        queue.offer(new Task(context, null, remoteControl, entry, imageSizeDefault, false, false, false));
+    /**
+     * Logs the time since scrolling stopped, once all requested images have been shown.
+     */
+    private void onTaskDone() {
+        synchronized (inFlight) {
+            if (scrollIdleTime != 0L && inFlight.isEmpty()) {
+                Log.d(TAG, "Cover art shown " + (System.currentTimeMillis() - scrollIdleTime) + " ms after scrolling stopped.");
+                scrollIdleTime = 0L;
+            }
+        }
     }
 
-    private String getKey(String coverArtId, int size) {
-        return coverArtId + size;
+    private String getKey(String coverArtId, int size, boolean reflection) {
+        return coverArtId + ":" + size + (reflection ? ":reflection" : "");
     }
 
     private void setImage(View view, Drawable drawable, boolean crossfade) {
@@ -157,18 +438,14 @@ public class ImageLoader implements Runnable {
         }
     }
     
-	private void setImage(RemoteControlClient remoteControl, Drawable drawable) {
-    	Bitmap origBitmap = ((BitmapDrawable)drawable).getBitmap();
-    	remoteControl.editMetadata(false)
-    	.putBitmap(
-    			RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK,
-    			origBitmap.copy(origBitmap.getConfig(), true))
-    	.apply();
-    }
-
     private void setUnknownImage(View view, boolean large) {
-        if (large) {
+        if (large && largeUnknownImage != null) {
             setImage(view, largeUnknownImage, false);
+        } else if (large) {
+            // Still being created.
+            if (view instanceof ImageView) {
+                ((ImageView) view).setImageResource(R.drawable.unknown_album_large);
+            }
         } else {
             if (view instanceof TextView) {
                 ((TextView) view).setCompoundDrawablesWithIntrinsicBounds(R.drawable.unknown_album, 0, 0, 0);
@@ -177,21 +454,25 @@ public class ImageLoader implements Runnable {
             }
         }
     }
-    
-    private void setUnknownImage(RemoteControlClient remoteControl) {
-        setImage(remoteControl, largeUnknownImage);
-    }
 
     public void clear() {
-        queue.clear();
+        synchronized (inFlight) {
+            for (Task task : queue) {
+                inFlight.remove(task.key);
+            }
+            queue.clear();
+        }
     }
 
     @Override
     public void run() {
         while (true) {
             try {
-                Task task = queue.take();
-                task.execute();
+                Task task = queue.takeFirst();
+                if (pruneTargets(task)) {
+                    task.execute();
+                }
+                onTaskDone();
             } catch (Throwable x) {
                 Log.e(TAG, "Unexpected exception in ImageLoader.", x);
             }
@@ -243,127 +524,172 @@ public class ImageLoader implements Runnable {
 
         return bitmapWithReflection;
     }
-    
-    
-    private Bitmap createReflection(Bitmap originalImage) {
-
-    //	int reflectionH = 80;
-    	
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight();
 
-        // Height of reflection
-        int reflectionHeight = height / 2;
-        
-        // The gap we want between the reflection and the original image
-        final int reflectionGap = 4;
-
-        // Create a new bitmap with same width but taller to fit reflection
-        Bitmap bitmapWithReflection = Bitmap.createBitmap(width, (height + reflectionHeight), Bitmap.Config.ARGB_8888);
-        
-        //// ----
-        
-    	Bitmap reflection = Bitmap.createBitmap(width,reflectionHeight, Bitmap.Config.ARGB_8888);
-    	Bitmap blurryBitmap = Bitmap.createBitmap(originalImage, 0, height - reflectionHeight, height, reflectionHeight);
-
-    	// cheap and easy scaling algorithm; down-scale it, then
-    	// upscale it. The filtering during the scale operations
-    	// will blur the resulting image
-    	blurryBitmap = Bitmap.createScaledBitmap(
-    	Bitmap.createScaledBitmap(
-    	blurryBitmap,blurryBitmap.getWidth() / 2,
-    	blurryBitmap.getHeight() / 2, true),
-    	blurryBitmap.getWidth(), blurryBitmap.getHeight(), true);
-    	
-    	// This shadier will hold a cropped, inverted,
-    	// blurry version of the original image
-    	BitmapShader bitmapShader = new BitmapShader(blurryBitmap, TileMode.CLAMP, TileMode.CLAMP);
-    	Matrix invertMatrix = new Matrix();
-    	invertMatrix.setScale(1f, -1f);
-    	invertMatrix.preTranslate(0, -reflectionHeight);
-    	bitmapShader.setLocalMatrix(invertMatrix);
-
-    	// This shader holds an alpha gradient
-    	Shader alphaGradient = new LinearGradient(0, 0, 0, reflectionHeight, 0x80ffffff, 0x00000000, TileMode.CLAMP);
-
-    	// This shader combines the previous two, resulting in a
-    	// blurred, fading reflection
-    	ComposeShader compositor = new ComposeShader(bitmapShader, alphaGradient, PorterDuff.Mode.DST_IN);
-
-    	Paint reflectionPaint = new Paint();
-    	reflectionPaint.setShader(compositor);
-
-    	// Draw the reflection into the bitmap that we will return
-    	Canvas canvas = new Canvas(reflection);
-    	canvas.drawRect(0, 0, reflection.getWidth(), reflection.getHeight(), reflectionPaint);
-
-    	/// -----
-    	
-        // Create a new Canvas with the bitmap that's big enough for
-        // the image plus gap plus reflection
-        Canvas finalcanvas = new Canvas(bitmapWithReflection);
-
-        // Draw in the original image
-        finalcanvas.drawBitmap(originalImage, 0, 0, null);
-
-        // Draw in the gap
-        Paint defaultPaint = new Paint();
-        finalcanvas.drawRect(0, height, width, height + reflectionGap, defaultPaint);
+    /**
+     * A view waiting for an image.
+     */
+    private static class Target {
+        private final View view;
+        private final boolean crossfade;
+        private final Handler handler;
 
-        // Draw in the reflection
-        finalcanvas.drawBitmap(reflection, 0, height + reflectionGap, null);
-    	
-    	return bitmapWithReflection;
+        Target(View view, boolean crossfade) {
+            this.view = view;
+            this.crossfade = crossfade;
+            handler = new Handler();
+        }
     }
-    
-    
+
 	private class Task {
     	private final Context context;
-        private final View view;
-        private final RemoteControlClient remoteControl;
+        private final String key;
         private final MusicDirectory.Entry entry;
-        private final Handler handler;
         private final int size;
         private final boolean reflection;
         private final boolean saveToFile;
-        private final boolean crossfade;
 
-        public Task(Context context, View view, RemoteControlClient remoteControl, MusicDirectory.Entry entry, int size, boolean reflection, boolean saveToFile, boolean crossfade) {
+        // Guarded by inFlight.
+        private final List<Target> targets = new ArrayList<Target>();
+        private boolean prefetch;
+
+        public Task(Context context, String key, MusicDirectory.Entry entry, int size, boolean reflection, boolean saveToFile) {
         	this.context = context;
-        	this.view = view;
-        	this.remoteControl = remoteControl;
+        	this.key = key;
             this.entry = entry;
             this.size = size;
             this.reflection = reflection;
             this.saveToFile = saveToFile;
-            this.crossfade = crossfade;
-            handler = new Handler();
         }
 
         public void execute() {
+            final Drawable drawable;
+            final boolean stored;
             try {
-                MusicService musicService = MusicServiceFactory.getMusicService(context);
-                Bitmap bitmap = musicService.getCoverArt(context, entry, size, saveToFile, null);
-
+                ArtworkCache artworkCache = ArtworkCache.getInstance();
+                Bitmap bitmap = null;
                 if (reflection) {
-                    bitmap = createReflection(bitmap);
+                    bitmap = artworkCache.get(context, entry, size, ReflectionRenderer.getReflectedHeight(size), REFLECTION_VARIANT);
+                }
+
+                if (bitmap == null) {
+                    MusicService musicService = MusicServiceFactory.getMusicService(context);
+                    if (reflection) {
+                        showPreview(musicService);
+                    }
+                    bitmap = musicService.getCoverArt(context, entry, size, saveToFile, null);
+                    if (bitmap == null) {
+                        Log.w(TAG, "No album art for " + entry);
+                        fail();
+                        return;
+                    }
+
+                    if (reflection) {
+                        bitmap = reflectionRenderer.render(bitmap);
+                        artworkCache.put(context, entry, size, REFLECTION_VARIANT, bitmap);
+                    }
+                }
+
+                drawable = Util.createDrawableFromBitmap(context, bitmap);
+                stored = thumbnailStore != null && !reflection && size == imageSizeDefault && thumbnailStore.put(key, bitmap);
+            } catch (Throwable x) {
+                Log.e(TAG, "Failed to download album art.", x);
+                fail();
+                return;
+            }
+
+            List<Target> waiting;
+            synchronized (inFlight) {
+                if (!stored) {
+                    cache.put(key, drawable);
+                }
+                inFlight.remove(key);
+                waiting = new ArrayList<Target>(targets);
+            }
+            deliver(waiting, drawable, true);
+        }
+
+        /**
+         * Shows the list thumbnail scaled up while a large image is being downloaded, so that slow
+         * connections show something other than the placeholder.  The full image cross-fades over it.
+         */
+        private void showPreview(MusicService musicService) {
+            // Not worth it unless the full image has to come from the server.
+            if (Util.isOffline(context) || ArtworkCache.getInstance().contains(context, entry, size) ||
+                FileUtil.getAlbumArtFile(context, entry).exists()) {
+                return;
+            }
+
+            List<Target> waiting;
+            synchronized (inFlight) {
+                if (targets.isEmpty()) {
+                    return;
                 }
+                waiting = new ArrayList<Target>(targets);
+            }
 
-                final Drawable drawable = Util.createDrawableFromBitmap(context, bitmap);
-                cache.put(getKey(entry.getCoverArt(), size), drawable);
+            try {
+                String thumbnailKey = getKey(entry.getCoverArt(), imageSizeDefault, false);
+                Bitmap thumbnail = null;
+                Drawable drawable = cache.get(thumbnailKey);
+                if (drawable instanceof BitmapDrawable) {
+                    thumbnail = ((BitmapDrawable) drawable).getBitmap();
+                } else if (thumbnailStore != null) {
+                    thumbnail = thumbnailStore.createBitmap();
+                    if (!thumbnailStore.get(thumbnailKey, thumbnail)) {
+                        thumbnail = null;
+                    }
+                }
+                if (thumbnail == null) {
+                    thumbnail = musicService.getCoverArt(context, entry, imageSizeDefault, false, null);
+                }
+                if (thumbnail == null) {
+                    return;
+                }
+
+                Bitmap scaled = Bitmap.createScaledBitmap(thumbnail, size, size, true);
+                deliver(waiting, Util.createDrawableFromBitmap(context, reflectionRenderer.render(scaled)), false);
+            } catch (Throwable x) {
+                Log.w(TAG, "Failed to get album art preview.", x);
+            }
+        }
 
-                handler.post(new Runnable() {
+        /**
+         * Gives up on the image, so that it's requested again next time, and shows the placeholder meanwhile.
+         */
+        private void fail() {
+            List<Target> waiting;
+            synchronized (inFlight) {
+                inFlight.remove(key);
+                waiting = new ArrayList<Target>(targets);
+            }
+            for (final Target target : waiting) {
+                target.handler.post(new Runnable() {
                     @Override
                     public void run() {
-                    	if (view != null) {
-                    		setImage(view, drawable, crossfade);
-                    	} else if (remoteControl != null) {
-                    		setImage(remoteControl, drawable);
-                    	}
+                        synchronized (inFlight) {
+                            if (!isCurrent(target, key)) {
+                                return;
+                            }
+                        }
+                        setUnknownImage(target.view, reflection);
+                    }
+                });
+            }
+        }
+
+        private void deliver(List<Target> waiting, final Drawable drawable, final boolean crossfade) {
+            for (final Target target : waiting) {
+                target.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (inFlight) {
+                            if (!isCurrent(target, key)) {
+                                return;
+                            }
+                        }
+                        setImage(target.view, drawable, crossfade && target.crossfade);
                     }
                 });
-            } catch (Throwable x) {
-                Log.e(TAG, "Failed to download album art.", x);
             }
         }
     }
@@ -18,85 +18,109 @@
  */
 package github.madmarty.madsonic.util;
 
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * A cache that evicts the least recently used entries once it holds more than a given number of entries,
+ * or more than a given number of bytes, as estimated by a {@link CacheManager.Sizer}.
+ *
  * @author Sindre Mehus
  */
-public class LRUCache<K,V>{
+public class LRUCache<K,V> implements CacheManager.ManagedCache {
 
     private final int capacity;
-    private final Map<K, TimestampedValue> map;
+    private final long maxBytes;
+    private final CacheManager.Sizer<? super V> sizer;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private long bytes;
 
     public LRUCache(int capacity) {
-        map = new HashMap<K, TimestampedValue>(capacity);
+        this(capacity, Long.MAX_VALUE, null);
+    }
+
+    public LRUCache(int capacity, long maxBytes, CacheManager.Sizer<? super V> sizer) {
         this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+
+        // Iterates in access order, least recently used first.
+        map = new LinkedHashMap<K, Entry<V>>(16, 0.75F, true);
     }
 
     public synchronized V get(K key) {
-        TimestampedValue value = map.get(key);
+        Entry<V> entry = map.get(key);
+        return entry == null ? null : entry.value;
+    }
 
-        V result = null;
-        if (value != null) {
-            value.updateTimestamp();
-            result = value.getValue();
+    public synchronized void put(K key, V value) {
+        Entry<V> entry = new Entry<V>(value, sizeOf(value));
+        Entry<V> previous = map.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
         }
-
-        return result;
+        bytes += entry.size;
+        trimTo(capacity, maxBytes);
     }
 
-    public synchronized void put(K key, V value) {
-        if (map.size() >= capacity) {
-            removeOldest();
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null) {
+            return null;
         }
-        map.put(key, new TimestampedValue(value));
+        bytes -= entry.size;
+        return entry.value;
     }
 
-    public void clear() {
+    public synchronized void clear() {
         map.clear();
+        bytes = 0L;
     }
 
-    private void removeOldest() {
-        K oldestKey = null;
-        long oldestTimestamp = Long.MAX_VALUE;
-
-        for (Map.Entry<K, TimestampedValue> entry : map.entrySet()) {
-            K key = entry.getKey();
-            TimestampedValue value = entry.getValue();
-            if (value.getTimestamp() < oldestTimestamp) {
-                oldestTimestamp = value.getTimestamp();
-                oldestKey = key;
-            }
-        }
-
-        if (oldestKey != null) {
-            map.remove(oldestKey);
-        }
+    public synchronized int size() {
+        return map.size();
     }
 
-    private final class TimestampedValue {
+    @Override
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
 
-        private final SoftReference<V> value;
-        private long timestamp;
+    @Override
+    public long getMaxSizeInBytes() {
+        return maxBytes;
+    }
 
-        public TimestampedValue(V value) {
-            this.value = new SoftReference<V>(value);
-            updateTimestamp();
-        }
+    @Override
+    public synchronized void trim(float fraction) {
+        long targetBytes = maxBytes == Long.MAX_VALUE ? (long) (bytes * fraction) : (long) (maxBytes * fraction);
+        trimTo((int) (capacity * fraction), targetBytes);
+    }
 
-        public V getValue() {
-            return value.get();
+    private void trimTo(int maxEntries, long maxBytes) {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext() && (map.size() > maxEntries || bytes > maxBytes)) {
+            bytes -= iterator.next().getValue().size;
+            iterator.remove();
         }
+    }
 
-        public long getTimestamp() {
-            return timestamp;
-        }
+    private long sizeOf(V value) {
+        return sizer == null ? 0L : sizer.sizeOf(value);
+    }
 
-        public void updateTimestamp() {
-            timestamp = System.currentTimeMillis();
+    /**
+     * A value and the size it was charged when put, since the size of a mutable value, such as a
+     * {@link TimeLimitedCache} that has expired, may change while it's in the cache.
+     */
+    private static class Entry<V> {
+        private final V value;
+        private final long size;
+
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
         }
     }
-
-}
\ No newline at end of file
+}
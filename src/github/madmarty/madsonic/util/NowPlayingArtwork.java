@@ -0,0 +1,202 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.RemoteControlClient;
+import android.os.Handler;
+import android.util.Log;
+import github.madmarty.madsonic.R;
+import github.madmarty.madsonic.domain.MusicDirectory;
+import github.madmarty.madsonic.service.MusicServiceFactory;
+
+/**
+ * Album art of the current track, as shown by the widget, the notification and the lock screen.
+ * <p/>
+ * Each variant is created once per track, and handed out again on later updates, e.g., when playback
+ * is paused or resumed.  The variants of the previous track are dropped when the track changes.
+ *
+ * @author Sindre Mehus
+ */
+public class NowPlayingArtwork {
+
+    private static final String TAG = NowPlayingArtwork.class.getSimpleName();
+    private static final NowPlayingArtwork INSTANCE = new NowPlayingArtwork();
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    private String currentId;
+    private Bitmap widgetBitmap;
+    private Bitmap notificationBitmap;
+    private Bitmap lockScreenBitmap;
+    private Bitmap unknownLockScreenBitmap;
+
+    public static NowPlayingArtwork getInstance() {
+        return INSTANCE;
+    }
+
+    private NowPlayingArtwork() {
+    }
+
+    /**
+     * Returns the album art of the given song with rounded corners, sized for the widget, or {@code null}
+     * if no album art is available locally.
+     */
+    public synchronized Bitmap getWidgetBitmap(Context context, MusicDirectory.Entry song) {
+        select(song);
+        if (!isUsable(widgetBitmap)) {
+            int size = context.getResources().getDrawable(R.drawable.appwidget_art_default).getIntrinsicHeight();
+            Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, song, size);
+            widgetBitmap = bitmap == null ? null : getRoundedCornerBitmap(bitmap);
+        }
+        return widgetBitmap;
+    }
+
+    /**
+     * Returns the album art of the given song sized for the notification, or {@code null}
+     * if no album art is available locally.
+     */
+    public synchronized Bitmap getNotificationBitmap(Context context, MusicDirectory.Entry song) {
+        select(song);
+        if (!isUsable(notificationBitmap)) {
+            notificationBitmap = FileUtil.getAlbumArtBitmap(context, song, getNotificationSize(context));
+        }
+        return notificationBitmap;
+    }
+
+    /**
+     * Sets the album art of the given song on the lock screen.  The album art is fetched from the server
+     * in the background, if not available locally.
+     */
+    @TargetApi(14)
+    public void loadLockScreenBitmap(final Context context, final RemoteControlClient remoteControl, final MusicDirectory.Entry song) {
+        final Handler handler = new Handler();
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = getLockScreenBitmap(context, song);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (NowPlayingArtwork.this) {
+                            if (!Util.equals(currentId, song.getId()) || bitmap.isRecycled()) {
+                                return;
+                            }
+                        }
+                        remoteControl.editMetadata(false)
+                                .putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, bitmap)
+                                .apply();
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap getLockScreenBitmap(Context context, MusicDirectory.Entry song) {
+        synchronized (this) {
+            select(song);
+            if (isUsable(lockScreenBitmap)) {
+                return lockScreenBitmap;
+            }
+        }
+
+        Bitmap bitmap = getNotificationBitmap(context, song);
+        if (bitmap == null && song.getCoverArt() != null) {
+            try {
+                bitmap = MusicServiceFactory.getMusicService(context).getCoverArt(context, song, getNotificationSize(context), false, null);
+            } catch (Exception x) {
+                Log.w(TAG, "Failed to get lock screen cover art", x);
+            }
+        }
+
+        synchronized (this) {
+            if (bitmap == null) {
+                if (!isUsable(unknownLockScreenBitmap)) {
+                    unknownLockScreenBitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.unknown_album_large);
+                }
+                return unknownLockScreenBitmap;
+            }
+
+            // The remote control client recycles the bitmap it replaces, so it gets its own copy.
+            Bitmap copy = bitmap.copy(bitmap.getConfig(), false);
+            if (Util.equals(currentId, song.getId())) {
+                lockScreenBitmap = copy;
+            }
+            return copy;
+        }
+    }
+
+    private void select(MusicDirectory.Entry song) {
+        String id = song == null ? null : song.getId();
+        if (!Util.equals(id, currentId)) {
+            currentId = id;
+
+            // Not recycled, since they may still be in use.
+            widgetBitmap = null;
+            notificationBitmap = null;
+            lockScreenBitmap = null;
+        }
+    }
+
+    private static boolean isUsable(Bitmap bitmap) {
+        return bitmap != null && !bitmap.isRecycled();
+    }
+
+    private static int getNotificationSize(Context context) {
+        return context.getResources().getDrawable(R.drawable.unknown_album).getIntrinsicHeight();
+    }
+
+    /**
+     * Round the corners of a bitmap for the cover art image
+     */
+    private static Bitmap getRoundedCornerBitmap(Bitmap bitmap) {
+        Bitmap output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+
+        final int color = 0xff424242;
+        final Paint paint = new Paint();
+        final float roundPx = 10;
+
+        // Add extra width to the rect so the right side wont be rounded.
+        final Rect rect = new Rect(0, 0, bitmap.getWidth() + (int) roundPx, bitmap.getHeight());
+        final RectF rectF = new RectF(rect);
+
+        paint.setAntiAlias(true);
+        canvas.drawARGB(0, 0, 0, 0);
+        paint.setColor(color);
+        canvas.drawRoundRect(rectF, roundPx, roundPx, paint);
+
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
+        canvas.drawBitmap(bitmap, rect, rect, paint);
+
+        return output;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileChangeWatcher} that periodically compares the modification time of each watched
+ * directory and relists the ones that changed.
+ * <p/>
+ * Uses plain Java only, so it also works outside the Android runtime.  Files rewritten in place
+ * (without being created, removed or renamed) are not detected, since that doesn't touch the directory.
+ *
+ * @author Sindre Mehus
+ */
+public class PollingFileWatcher implements FileChangeWatcher {
+
+    private final Map<String, DirectoryState> directories = new HashMap<String, DirectoryState>();
+    private final ScheduledExecutorService executorService;
+    private volatile Listener listener;
+
+    public PollingFileWatcher(long interval, TimeUnit timeUnit) {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        };
+        executorService.scheduleWithFixedDelay(runnable, interval, interval, timeUnit);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void watch(File dir) {
+        if (!directories.containsKey(dir.getPath())) {
+            directories.put(dir.getPath(), new DirectoryState(dir));
+        }
+    }
+
+    @Override
+    public synchronized void unwatch(File dir) {
+        directories.remove(dir.getPath());
+    }
+
+    @Override
+    public synchronized void stop() {
+        executorService.shutdown();
+        directories.clear();
+    }
+
+    /**
+     * Checks all watched directories once.  Invoked periodically, but may also be called directly.
+     */
+    public void poll() {
+        List<File> changes = new ArrayList<File>();
+        synchronized (this) {
+            for (DirectoryState state : directories.values()) {
+                state.findChanges(changes);
+            }
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            for (File file : changes) {
+                try {
+                    listener.onFileChanged(file);
+                } catch (Throwable x) {
+                    // Keep polling.
+                }
+            }
+        }
+    }
+
+    private static class DirectoryState {
+        private final File dir;
+        private long lastModified;
+        private Set<String> children;
+
+        DirectoryState(File dir) {
+            this.dir = dir;
+            lastModified = dir.lastModified();
+            children = list(dir);
+        }
+
+        void findChanges(List<File> changes) {
+            if (!dir.exists()) {
+                if (lastModified != 0L) {
+                    lastModified = 0L;
+                    changes.add(dir);
+                }
+                return;
+            }
+
+            long modified = dir.lastModified();
+            if (modified == lastModified) {
+                return;
+            }
+            lastModified = modified;
+
+            Set<String> newChildren = list(dir);
+            for (String name : newChildren) {
+                if (!children.contains(name)) {
+                    changes.add(new File(dir, name));
+                }
+            }
+            for (String name : children) {
+                if (!newChildren.contains(name)) {
+                    changes.add(new File(dir, name));
+                }
+            }
+            children = newChildren;
+        }
+
+        private static Set<String> list(File dir) {
+            String[] names = dir.list();
+            return names == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(names));
+        }
+    }
+}
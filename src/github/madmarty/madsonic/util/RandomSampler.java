@@ -0,0 +1,123 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Weighted random sampling without replacement.
+ *
+ * @author Sindre Mehus
+ */
+public final class RandomSampler {
+
+    private RandomSampler() {
+    }
+
+    /**
+     * Picks up to {@code count} distinct items from a list with constant time random access.  Each pick is
+     * accepted with probability {@code weight / maxWeight}, so the expected cost is O(count * maxWeight / average weight),
+     * independent of the size of the list.  Items with weight zero are never picked.
+     * <p/>
+     * Fewer items are returned if too few candidates are found within a bounded number of attempts.
+     */
+    public static <T> List<T> sample(List<T> items, int count, double maxWeight, Weigher<? super T> weigher, Random random) {
+        int n = items.size();
+        count = Math.min(count, n);
+        List<T> result = new ArrayList<T>(count);
+        Set<Integer> picked = new HashSet<Integer>(count * 2);
+
+        int maxAttempts = (int) Math.ceil(count * maxWeight * 10);
+        for (int attempt = 0; attempt < maxAttempts && result.size() < count; attempt++) {
+            int index = random.nextInt(n);
+            if (picked.contains(index)) {
+                continue;
+            }
+            T item = items.get(index);
+            double weight = weigher.getWeight(item);
+            if (weight > 0.0 && random.nextDouble() * maxWeight < weight) {
+                picked.add(index);
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    public static interface Weigher<T> {
+        double getWeight(T item);
+    }
+
+    /**
+     * Single-pass weighted reservoir sampling (Efraimidis and Spirakis), for when the candidates can only be
+     * enumerated.  Keeps at most {@code capacity} items in memory.
+     */
+    public static class Reservoir<T> {
+        private final int capacity;
+        private final Random random;
+        private final PriorityQueue<Candidate<T>> candidates;
+
+        public Reservoir(int capacity, Random random) {
+            this.capacity = capacity;
+            this.random = random;
+            candidates = new PriorityQueue<Candidate<T>>(Math.max(capacity, 1), new Comparator<Candidate<T>>() {
+                @Override
+                public int compare(Candidate<T> a, Candidate<T> b) {
+                    return Double.compare(a.key, b.key);
+                }
+            });
+        }
+
+        public void offer(T item, double weight) {
+            if (weight <= 0.0 || capacity <= 0) {
+                return;
+            }
+            double key = Math.pow(random.nextDouble(), 1.0 / weight);
+            if (candidates.size() < capacity) {
+                candidates.add(new Candidate<T>(item, key));
+            } else if (key > candidates.peek().key) {
+                candidates.poll();
+                candidates.add(new Candidate<T>(item, key));
+            }
+        }
+
+        public List<T> getItems() {
+            List<T> result = new ArrayList<T>(candidates.size());
+            for (Candidate<T> candidate : candidates) {
+                result.add(candidate.item);
+            }
+            return result;
+        }
+    }
+
+    private static class Candidate<T> {
+        private final T item;
+        private final double key;
+
+        Candidate(T item, double key) {
+            this.item = item;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ComposeShader;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.graphics.Shader.TileMode;
+
+/**
+ * Renders album art with a blurred, fading reflection below it, as shown in the now-playing view.
+ * <p/>
+ * The scratch bitmaps and shaders are kept between calls, and only recreated when the image size changes.
+ * Instances are thread safe.
+ *
+ * @author Sindre Mehus
+ */
+public class ReflectionRenderer {
+
+    // The gap between the image and the reflection.
+    private static final int REFLECTION_GAP = 4;
+
+    private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint gapPaint = new Paint();
+    private final Paint reflectionPaint = new Paint();
+
+    private int width;
+    private int height;
+    private Bitmap halfBuffer;
+    private Bitmap blurBuffer;
+    private Canvas halfCanvas;
+    private Canvas blurCanvas;
+
+    /**
+     * Returns the height of the reflected image of an image with the given height.
+     */
+    public static int getReflectedHeight(int height) {
+        return height + getReflectionHeight(height);
+    }
+
+    private static int getReflectionHeight(int height) {
+        return Math.max(height / 2, 1);
+    }
+
+    public synchronized Bitmap render(Bitmap original) {
+        int width = original.getWidth();
+        int height = original.getHeight();
+        int reflectionHeight = getReflectionHeight(height);
+        prepare(width, height);
+
+        // Cheap and easy blur: scale the bottom of the image down, then up again.  The filtering
+        // during the scale operations blurs it.
+        halfBuffer.eraseColor(0);
+        halfCanvas.drawBitmap(original, new Rect(0, height - reflectionHeight, width, height),
+                new Rect(0, 0, halfBuffer.getWidth(), halfBuffer.getHeight()), filterPaint);
+        blurBuffer.eraseColor(0);
+        blurCanvas.drawBitmap(halfBuffer, null, new Rect(0, 0, width, reflectionHeight), filterPaint);
+
+        Bitmap result = Bitmap.createBitmap(width, height + reflectionHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        canvas.drawBitmap(original, 0, 0, null);
+        canvas.drawRect(0, height, width, height + REFLECTION_GAP, gapPaint);
+
+        // The reflection paint holds a flipped version of the blurred buffer, faded by an alpha gradient.
+        canvas.translate(0, height + REFLECTION_GAP);
+        canvas.drawRect(0, 0, width, reflectionHeight, reflectionPaint);
+        return result;
+    }
+
+    private void prepare(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        if (halfBuffer != null) {
+            halfBuffer.recycle();
+            blurBuffer.recycle();
+        }
+
+        int reflectionHeight = getReflectionHeight(height);
+        halfBuffer = Bitmap.createBitmap(Math.max(width / 2, 1), Math.max(reflectionHeight / 2, 1), Bitmap.Config.ARGB_8888);
+        blurBuffer = Bitmap.createBitmap(width, reflectionHeight, Bitmap.Config.ARGB_8888);
+        halfCanvas = new Canvas(halfBuffer);
+        blurCanvas = new Canvas(blurBuffer);
+
+        BitmapShader bitmapShader = new BitmapShader(blurBuffer, TileMode.CLAMP, TileMode.CLAMP);
+        Matrix invertMatrix = new Matrix();
+        invertMatrix.setScale(1f, -1f);
+        invertMatrix.preTranslate(0, -reflectionHeight);
+        bitmapShader.setLocalMatrix(invertMatrix);
+
+        Shader alphaGradient = new LinearGradient(0, 0, 0, reflectionHeight, 0x80ffffff, 0x00000000, TileMode.CLAMP);
+        reflectionPaint.setShader(new ComposeShader(bitmapShader, alphaGradient, PorterDuff.Mode.DST_IN));
+
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -19,8 +19,6 @@
 package github.madmarty.madsonic.util;
 
 import android.content.Context;
-import android.os.Handler;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Checkable;
@@ -34,22 +32,19 @@ import github.madmarty.madsonic.domain.MusicDirectory;
 import github.madmarty.madsonic.service.DownloadService;
 import github.madmarty.madsonic.service.DownloadServiceImpl;
 import github.madmarty.madsonic.service.DownloadFile;
-
-import java.io.File;
-import java.util.WeakHashMap;
+import github.madmarty.madsonic.service.DownloadStatus;
 
 /**
  * Used to display songs in a {@code ListView}.
+ * <p/>
+ * The download status is pushed to the view by its download file when it changes.
  *
  * @author Sindre Mehus
  */
-public class SongView extends LinearLayout implements Checkable {
+public class SongView extends LinearLayout implements Checkable, DownloadFile.StatusListener {
 
-    private static final String TAG = SongView.class.getSimpleName();
-    private static final WeakHashMap<SongView, ?> INSTANCES = new WeakHashMap<SongView, Object>();
-    private static Handler handler;
-    
     private MusicDirectory.Entry song;
+    private DownloadFile downloadFile;
 
     private CheckedTextView checkedTextView;
     private TextView titleTextView;
@@ -77,12 +72,6 @@ public class SongView extends LinearLayout implements Checkable {
 			}
 		});
 
-        INSTANCES.put(this, null);
-        int instanceCount = INSTANCES.size();
-        if (instanceCount > 50) {
-            Log.w(TAG, instanceCount + " live SongView instances");
-        }
-        startUpdater();
     }
 
     public void setSong(MusicDirectory.Entry song, boolean checkable) {
@@ -113,67 +102,62 @@ public class SongView extends LinearLayout implements Checkable {
         starButton.setImageResource(song.isStarred() ? android.R.drawable.btn_star_big_on : android.R.drawable.btn_star_big_off);
         starButton.setFocusable(false);
 
-        update();
+        setDownloadFile();
     }
 
-    private void update() {
+    private void setDownloadFile() {
         DownloadService downloadService = DownloadServiceImpl.getInstance();
-        if (downloadService == null) {
+        DownloadFile downloadFile = downloadService == null ? null : downloadService.forSong(song);
+        if (downloadFile == this.downloadFile) {
             return;
         }
 
-        DownloadFile downloadFile = downloadService.forSong(song);
-        File completeFile = downloadFile.getCompleteFile();
-        File partialFile = downloadFile.getPartialFile();
-
-        int leftImage = 0;
-        int rightImage = 0;
-
-        if (completeFile.exists()) {
-            leftImage = downloadFile.isSaved() ? R.drawable.saved : R.drawable.downloaded;
+        if (this.downloadFile != null) {
+            this.downloadFile.removeStatusListener(this);
         }
-
-        if (downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && partialFile.exists()) {
-            statusTextView.setText(Util.formatLocalizedBytes(partialFile.length(), getContext()));
-            rightImage = R.drawable.downloading;
+        this.downloadFile = downloadFile;
+        if (downloadFile == null) {
+            showStatus(null);
         } else {
-            statusTextView.setText(null);
-        }
-        statusTextView.setCompoundDrawablesWithIntrinsicBounds(leftImage, 0, rightImage, 0);
-
-        boolean playing = downloadService.getCurrentPlaying() == downloadFile;
-        if (playing) {
-            titleTextView.setCompoundDrawablesWithIntrinsicBounds(R.drawable.stat_notify_playing, 0, 0, 0);
-        } else {
-            titleTextView.setCompoundDrawablesWithIntrinsicBounds(0, 0, 0, 0);
+            downloadFile.addStatusListener(this);
+            showStatus(downloadFile.getStatus());
         }
     }
 
-    private static synchronized void startUpdater() {
-        if (handler != null) {
-            return;
+    @Override
+    public void onStatusChanged(DownloadFile downloadFile, DownloadStatus status) {
+        if (downloadFile == this.downloadFile) {
+            showStatus(status);
         }
-
-        handler = new Handler();
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                updateAll();
-                handler.postDelayed(this, 1000L);
-            }
-        };
-        handler.postDelayed(runnable, 1000L);
     }
 
-    private static void updateAll() {
-        try {
-            for (SongView view : INSTANCES.keySet()) {
-                if (view.isShown()) {
-                    view.update();
-                }
+    private void showStatus(DownloadStatus status) {
+        int leftImage = 0;
+        int rightImage = 0;
+        statusTextView.setText(null);
+
+        if (status != null) {
+            switch (status.getState()) {
+                case SAVED:
+                    leftImage = R.drawable.saved;
+                    break;
+                case COMPLETE:
+                    leftImage = R.drawable.downloaded;
+                    break;
+                case DOWNLOADING:
+                    statusTextView.setText(Util.formatLocalizedBytes(status.getBytes(), getContext()));
+                    rightImage = R.drawable.downloading;
+                    break;
+                default:
+                    break;
             }
-        } catch (Throwable x) {
-            Log.w(TAG, "Error when updating song views.", x);
+        }
+        statusTextView.setCompoundDrawablesWithIntrinsicBounds(leftImage, 0, rightImage, 0);
+
+        if (status != null && status.isPlaying()) {
+            titleTextView.setCompoundDrawablesWithIntrinsicBounds(R.drawable.stat_notify_playing, 0, 0, 0);
+        } else {
+            titleTextView.setCompoundDrawablesWithIntrinsicBounds(0, 0, 0, 0);
         }
     }
 
@@ -0,0 +1,826 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+
+import android.util.Log;
+
+/**
+ * Reads the embedded tags and stream properties of music files: ID3v2 and MPEG frame headers
+ * for MP3, Vorbis comments for FLAC and Ogg (Vorbis or Opus), and atoms for MP4/M4A.
+ * <p/>
+ * Only headers are read.  Large frames and blocks, like embedded pictures, are skipped by seeking.
+ * All reads go through a small per-thread buffer, so parsing a file allocates very little.
+ *
+ * @author Sindre Mehus
+ */
+public final class TagReader {
+
+    private static final String TAG = TagReader.class.getSimpleName();
+    private static final int BUFFER_SIZE = 8192;
+
+    // Don't bother decoding text values longer than this.
+    private static final int MAX_VALUE_LENGTH = 1024;
+
+    // How far from the end of an Ogg file to look for the last page.
+    private static final int OGG_TAIL_LENGTH = 65536;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final int[][] MPEG_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},   // MPEG-1, layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},      // MPEG-1, layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},       // MPEG-1, layer III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},      // MPEG-2/2.5, layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}            // MPEG-2/2.5, layer II & III
+    };
+
+    private static final int[][] MPEG_SAMPLE_RATES = {
+            {11025, 12000, 8000},   // MPEG-2.5
+            {0, 0, 0},              // Reserved
+            {22050, 24000, 16000},  // MPEG-2
+            {44100, 48000, 32000}   // MPEG-1
+    };
+
+    private static final String[] ID3_GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz", "Metal",
+            "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno", "Industrial",
+            "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno", "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk",
+            "Fusion", "Trance", "Classical", "Instrumental", "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise",
+            "AlternRock", "Bass", "Soul", "Punk", "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic",
+            "Darkwave", "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult", "Gangsta",
+            "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret", "New Wave", "Psychadelic", "Rave", "Showtunes",
+            "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical", "Rock & Roll", "Hard Rock"
+    };
+
+    private TagReader() {
+    }
+
+    /**
+     * Reads the tags of the given file.
+     *
+     * @return The tags.  Empty if the format is not recognized.  {@code null} if the file could not be read.
+     */
+    public static Tags read(File file) {
+        Tags tags = new Tags();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            Input in = new Input(raf, BUFFER.get());
+            if (in.length() < 12) {
+                return tags;
+            }
+
+            byte[] magic = new byte[8];
+            in.readFully(magic, 0, 8);
+            in.seek(0);
+
+            if (startsWith(magic, 0, "ID3")) {
+                readMpeg(in, tags);
+            } else if (startsWith(magic, 0, "fLaC")) {
+                readFlac(in, tags);
+            } else if (startsWith(magic, 0, "OggS")) {
+                readOgg(in, tags);
+            } else if (startsWith(magic, 4, "ftyp")) {
+                readMp4(in, tags);
+            } else if ("mp3".equals(FileUtil.getExtension(file.getName()))) {
+                readMpeg(in, tags);
+            }
+            return tags;
+
+        } catch (EOFException x) {
+            Log.w(TAG, "Unexpected end of file in " + file);
+            return tags;
+        } catch (IOException x) {
+            Log.w(TAG, "Failed to read tags from " + file, x);
+            return null;
+        } catch (RuntimeException x) {
+            Log.w(TAG, "Failed to parse tags in " + file, x);
+            return tags;
+        } finally {
+            Util.close(raf);
+        }
+    }
+
+    private static void readMpeg(Input in, Tags tags) throws IOException {
+        long audioStart = 0L;
+        if (in.read() == 'I' && in.read() == 'D' && in.read() == '3') {
+            audioStart = readId3v2(in, tags);
+        }
+
+        Integer tagDuration = tags.duration;
+        readMpegFrameHeader(in, audioStart, tags);
+        if (tagDuration != null) {
+            tags.duration = tagDuration;
+        }
+    }
+
+    /**
+     * Reads an ID3v2.2, 2.3 or 2.4 tag.  The input must be positioned right after the "ID3" marker.
+     *
+     * @return The offset of the first byte following the tag.
+     */
+    private static long readId3v2(Input in, Tags tags) throws IOException {
+        int major = in.read();
+        in.read(); // Revision
+        int flags = in.read();
+        long size = readSyncSafeInt(in);
+        long end = 10 + size + ((major >= 4 && (flags & 0x10) != 0) ? 10 : 0);
+
+        if (major < 2 || major > 4) {
+            return end;
+        }
+
+        if ((flags & 0x40) != 0 && major >= 3) {
+            long extendedSize = major == 3 ? in.readIntBE() + 4 : readSyncSafeInt(in);
+            in.seek(10 + extendedSize);
+        }
+
+        int idLength = major == 2 ? 3 : 4;
+        byte[] id = new byte[idLength];
+        while (in.position() + idLength * 2 < 10 + size) {
+            in.readFully(id, 0, idLength);
+            if (id[0] == 0) {
+                break; // Padding
+            }
+
+            long frameSize;
+            if (major == 2) {
+                frameSize = (in.read() << 16) | (in.read() << 8) | in.read();
+            } else {
+                frameSize = major == 4 ? readSyncSafeInt(in) : (in.readIntBE() & 0xFFFFFFFFL);
+                in.skip(2); // Flags
+            }
+            long next = in.position() + frameSize;
+            if (frameSize <= 0 || next > 10 + size) {
+                break;
+            }
+
+            String frame = new String(id, "ISO-8859-1");
+            if (frameSize <= MAX_VALUE_LENGTH && frame.charAt(0) == 'T') {
+                String value = readId3Text(in, (int) frameSize);
+                if ("TIT2".equals(frame) || "TT2".equals(frame)) {
+                    tags.title = value;
+                } else if ("TPE1".equals(frame) || "TP1".equals(frame)) {
+                    tags.artist = value;
+                } else if ("TALB".equals(frame) || "TAL".equals(frame)) {
+                    tags.album = value;
+                } else if ("TRCK".equals(frame) || "TRK".equals(frame)) {
+                    tags.track = parseLeadingInt(value);
+                } else if ("TYER".equals(frame) || "TDRC".equals(frame) || "TYE".equals(frame)) {
+                    tags.year = parseLeadingInt(value);
+                } else if ("TCON".equals(frame) || "TCO".equals(frame)) {
+                    tags.genre = parseId3Genre(value);
+                } else if ("TLEN".equals(frame) || "TLE".equals(frame)) {
+                    Integer millis = parseLeadingInt(value);
+                    if (millis != null && millis > 0) {
+                        tags.duration = millis / 1000;
+                    }
+                }
+            }
+            in.seek(next);
+        }
+        return end;
+    }
+
+    private static String readId3Text(Input in, int length) throws IOException {
+        if (length < 2) {
+            return null;
+        }
+        int encoding = in.read();
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes, 0, bytes.length);
+
+        String charset;
+        switch (encoding) {
+            case 1:
+                charset = "UTF-16";
+                break;
+            case 2:
+                charset = "UTF-16BE";
+                break;
+            case 3:
+                charset = "UTF-8";
+                break;
+            default:
+                charset = "ISO-8859-1";
+                break;
+        }
+
+        // ID3v2.4 separates multiple values with null characters.  Use the first one.
+        String value = new String(bytes, charset);
+        int nul = value.indexOf('\u0000');
+        if (nul != -1) {
+            value = value.substring(0, nul);
+        }
+        value = value.trim();
+        return value.length() == 0 ? null : value;
+    }
+
+    private static String parseId3Genre(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        // Either "Rock", "17", "(17)" or "(17)Rock".
+        if (value.startsWith("(")) {
+            int end = value.indexOf(')');
+            if (end != -1 && end < value.length() - 1) {
+                return value.substring(end + 1);
+            }
+            value = end == -1 ? value.substring(1) : value.substring(1, end);
+        }
+        try {
+            int index = Integer.parseInt(value);
+            return index >= 0 && index < ID3_GENRES.length ? ID3_GENRES[index] : null;
+        } catch (NumberFormatException x) {
+            return value;
+        }
+    }
+
+    /**
+     * Finds the first MPEG audio frame and derives bit rate and duration from it, using the Xing/Info
+     * or VBRI header for variable bit rate files.
+     */
+    private static void readMpegFrameHeader(Input in, long audioStart, Tags tags) throws IOException {
+        long limit = Math.min(in.length() - 4, audioStart + BUFFER_SIZE);
+        for (long pos = audioStart; pos < limit; pos++) {
+            in.seek(pos);
+            if (in.read() != 0xFF) {
+                continue;
+            }
+            int b1 = in.read();
+            if ((b1 & 0xE0) != 0xE0) {
+                continue;
+            }
+            int b2 = in.read();
+            int b3 = in.read();
+
+            int version = (b1 >> 3) & 0x03;
+            int layer = (b1 >> 1) & 0x03;
+            int bitRateIndex = (b2 >> 4) & 0x0F;
+            int sampleRateIndex = (b2 >> 2) & 0x03;
+            if (version == 1 || layer == 0 || bitRateIndex == 0 || bitRateIndex == 15 || sampleRateIndex == 3) {
+                continue;
+            }
+
+            boolean mpeg1 = version == 3;
+            boolean mono = ((b3 >> 6) & 0x03) == 3;
+            int bitRate = mpeg1 ? MPEG_BITRATES[3 - layer][bitRateIndex] : MPEG_BITRATES[layer == 3 ? 3 : 4][bitRateIndex];
+            int sampleRate = MPEG_SAMPLE_RATES[version][sampleRateIndex];
+            int samplesPerFrame = layer == 3 ? 384 : (layer == 1 && !mpeg1) ? 576 : 1152;
+
+            // Look for a Xing/Info header in the first frame.
+            int sideInfoLength = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            in.seek(pos + 4 + sideInfoLength);
+            int marker = in.readIntBE();
+            if (marker == 0x58696E67 || marker == 0x496E666F) { // "Xing" or "Info"
+                int flags = in.readIntBE();
+                long frames = (flags & 0x01) != 0 ? in.readIntBE() & 0xFFFFFFFFL : 0L;
+                long bytes = (flags & 0x02) != 0 ? in.readIntBE() & 0xFFFFFFFFL : 0L;
+                if (frames > 0) {
+                    double seconds = (double) frames * samplesPerFrame / sampleRate;
+                    tags.duration = (int) Math.round(seconds);
+                    if (bytes == 0L) {
+                        bytes = in.length() - pos;
+                    }
+                    tags.bitRate = (int) Math.round(bytes * 8.0 / seconds / 1000.0);
+                    return;
+                }
+            }
+
+            // Look for a VBRI header.
+            in.seek(pos + 4 + 32);
+            if (in.readIntBE() == 0x56425249) { // "VBRI"
+                in.skip(6);
+                long bytes = in.readIntBE() & 0xFFFFFFFFL;
+                long frames = in.readIntBE() & 0xFFFFFFFFL;
+                if (frames > 0) {
+                    double seconds = (double) frames * samplesPerFrame / sampleRate;
+                    tags.duration = (int) Math.round(seconds);
+                    tags.bitRate = (int) Math.round(bytes * 8.0 / seconds / 1000.0);
+                    return;
+                }
+            }
+
+            // Assume constant bit rate.
+            tags.bitRate = bitRate;
+            tags.duration = (int) ((in.length() - pos) * 8L / (bitRate * 1000L));
+            return;
+        }
+    }
+
+    private static void readFlac(Input in, Tags tags) throws IOException {
+        in.seek(4);
+        boolean last = false;
+        long sampleRate = 0L;
+        long totalSamples = 0L;
+
+        while (!last) {
+            int header = in.read();
+            last = (header & 0x80) != 0;
+            int type = header & 0x7F;
+            int length = (in.read() << 16) | (in.read() << 8) | in.read();
+            long next = in.position() + length;
+
+            if (type == 0 && length >= 18) { // STREAMINFO
+                in.skip(10);
+                int b10 = in.read();
+                int b11 = in.read();
+                int b12 = in.read();
+                int b13 = in.read();
+                sampleRate = (b10 << 12) | (b11 << 4) | (b12 >> 4);
+                totalSamples = ((long) (b13 & 0x0F) << 32) | (in.readIntBE() & 0xFFFFFFFFL);
+            } else if (type == 4) { // VORBIS_COMMENT
+                readVorbisComments(in, tags);
+            }
+            in.seek(next);
+        }
+
+        if (sampleRate > 0 && totalSamples > 0) {
+            double seconds = (double) totalSamples / sampleRate;
+            tags.duration = (int) Math.round(seconds);
+            tags.bitRate = (int) Math.round(in.length() * 8.0 / seconds / 1000.0);
+        }
+    }
+
+    private static void readOgg(Input in, Tags tags) throws IOException {
+        OggPacketInput packets = new OggPacketInput(in);
+
+        // The first page holds the identification header only.
+        byte[] magic = new byte[8];
+        packets.readFully(magic, 0, 8);
+        boolean opus = startsWith(magic, 0, "OpusHead");
+        long sampleRate;
+        Integer nominalBitRate = null;
+        if (opus) {
+            packets.skip(4); // Version, channel count and pre-skip.
+            sampleRate = 48000; // Opus granule positions always count 48 kHz samples.
+        } else if (magic[0] == 1 && startsWith(magic, 1, "vorbis")) {
+            packets.skip(4); // Rest of version, channel count.
+            sampleRate = packets.readIntLE() & 0xFFFFFFFFL;
+            packets.readIntLE(); // Maximum bit rate
+            int nominal = packets.readIntLE();
+            if (nominal > 0) {
+                nominalBitRate = nominal / 1000;
+            }
+        } else {
+            return;
+        }
+
+        // The comment header starts on the second page.
+        packets.nextPage();
+        packets.readFully(magic, 0, opus ? 8 : 7);
+        if (opus ? startsWith(magic, 0, "OpusTags") : (magic[0] == 3 && startsWith(magic, 1, "vorbis"))) {
+            readVorbisComments(packets, tags);
+        }
+
+        long granule = findLastOggGranule(in);
+        if (sampleRate > 0 && granule > 0) {
+            double seconds = (double) granule / sampleRate;
+            tags.duration = (int) Math.round(seconds);
+            tags.bitRate = (int) Math.round(in.length() * 8.0 / seconds / 1000.0);
+        } else {
+            tags.bitRate = nominalBitRate;
+        }
+    }
+
+    private static long findLastOggGranule(Input in) throws IOException {
+        long length = in.length();
+        long pos = in.findLast("OggS", Math.max(0L, length - OGG_TAIL_LENGTH), length);
+        if (pos == -1L) {
+            return -1L;
+        }
+        in.seek(pos + 6);
+        long low = in.readIntLE() & 0xFFFFFFFFL;
+        long high = in.readIntLE() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+
+    private static void readVorbisComments(ByteSource in, Tags tags) throws IOException {
+        long vendorLength = in.readIntLE() & 0xFFFFFFFFL;
+        in.skip(vendorLength);
+        long count = in.readIntLE() & 0xFFFFFFFFL;
+
+        for (long i = 0; i < count; i++) {
+            long length = in.readIntLE() & 0xFFFFFFFFL;
+            if (length > MAX_VALUE_LENGTH) {
+                in.skip(length); // Most likely an embedded picture.
+                continue;
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes, 0, bytes.length);
+            String comment = new String(bytes, "UTF-8");
+            int eq = comment.indexOf('=');
+            if (eq == -1) {
+                continue;
+            }
+
+            String key = comment.substring(0, eq).toUpperCase();
+            String value = comment.substring(eq + 1).trim();
+            if (value.length() == 0) {
+                continue;
+            }
+            if ("TITLE".equals(key)) {
+                tags.title = value;
+            } else if ("ARTIST".equals(key)) {
+                tags.artist = value;
+            } else if ("ALBUM".equals(key)) {
+                tags.album = value;
+            } else if ("TRACKNUMBER".equals(key)) {
+                tags.track = parseLeadingInt(value);
+            } else if ("DATE".equals(key) || "YEAR".equals(key)) {
+                tags.year = parseLeadingInt(value);
+            } else if ("GENRE".equals(key)) {
+                tags.genre = value;
+            }
+        }
+    }
+
+    private static void readMp4(Input in, Tags tags) throws IOException {
+        long[] moov = findAtom(in, 0L, in.length(), "moov");
+        if (moov == null) {
+            return;
+        }
+
+        long[] mvhd = findAtom(in, moov[0], moov[1], "mvhd");
+        if (mvhd != null) {
+            in.seek(mvhd[0]);
+            int version = in.read();
+            in.skip(3);
+            long timeScale;
+            long duration;
+            if (version == 1) {
+                in.skip(16);
+                timeScale = in.readIntBE() & 0xFFFFFFFFL;
+                duration = in.readLongBE();
+            } else {
+                in.skip(8);
+                timeScale = in.readIntBE() & 0xFFFFFFFFL;
+                duration = in.readIntBE() & 0xFFFFFFFFL;
+            }
+            if (timeScale > 0 && duration > 0) {
+                double seconds = (double) duration / timeScale;
+                tags.duration = (int) Math.round(seconds);
+                tags.bitRate = (int) Math.round(in.length() * 8.0 / seconds / 1000.0);
+            }
+        }
+
+        long[] udta = findAtom(in, moov[0], moov[1], "udta");
+        long[] meta = udta == null ? null : findAtom(in, udta[0], udta[1], "meta");
+        if (meta == null) {
+            return;
+        }
+
+        // "meta" is a full atom, with four bytes of version and flags preceding its children.
+        long[] ilst = findAtom(in, meta[0] + 4, meta[1], "ilst");
+        if (ilst == null) {
+            return;
+        }
+
+        long pos = ilst[0];
+        while (pos + 8 <= ilst[1]) {
+            in.seek(pos);
+            long size = in.readIntBE() & 0xFFFFFFFFL;
+            String type = in.readType();
+            if (size < 8) {
+                break;
+            }
+
+            long[] data = findAtom(in, pos + 8, pos + size, "data");
+            if (data != null && data[1] - data[0] > 8 && data[1] - data[0] <= MAX_VALUE_LENGTH) {
+                in.seek(data[0] + 8); // Skip type indicator and locale.
+                byte[] value = new byte[(int) (data[1] - data[0] - 8)];
+                in.readFully(value, 0, value.length);
+
+                if ("\u00A9nam".equals(type)) {
+                    tags.title = new String(value, "UTF-8");
+                } else if ("\u00A9ART".equals(type)) {
+                    tags.artist = new String(value, "UTF-8");
+                } else if ("\u00A9alb".equals(type)) {
+                    tags.album = new String(value, "UTF-8");
+                } else if ("\u00A9day".equals(type)) {
+                    tags.year = parseLeadingInt(new String(value, "UTF-8"));
+                } else if ("\u00A9gen".equals(type)) {
+                    tags.genre = new String(value, "UTF-8");
+                } else if ("gnre".equals(type) && value.length >= 2) {
+                    int index = ((value[0] & 0xFF) << 8 | (value[1] & 0xFF)) - 1;
+                    tags.genre = index >= 0 && index < ID3_GENRES.length ? ID3_GENRES[index] : null;
+                } else if ("trkn".equals(type) && value.length >= 4) {
+                    int track = (value[2] & 0xFF) << 8 | (value[3] & 0xFF);
+                    tags.track = track > 0 ? track : null;
+                }
+            }
+            pos += size;
+        }
+    }
+
+    /**
+     * Finds a child atom within the given range.
+     *
+     * @return The start and end offsets of the atom's content, or {@code null} if not found.
+     */
+    private static long[] findAtom(Input in, long start, long end, String type) throws IOException {
+        long pos = start;
+        while (pos + 8 <= end) {
+            in.seek(pos);
+            long size = in.readIntBE() & 0xFFFFFFFFL;
+            String atomType = in.readType();
+            long headerSize = 8;
+            if (size == 1) {
+                size = in.readLongBE();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - pos;
+            }
+            if (size < headerSize) {
+                return null;
+            }
+            if (type.equals(atomType)) {
+                return new long[]{pos + headerSize, Math.min(pos + size, end)};
+            }
+            pos += size;
+        }
+        return null;
+    }
+
+    private static long readSyncSafeInt(Input in) throws IOException {
+        return (in.read() & 0x7F) << 21 | (in.read() & 0x7F) << 14 | (in.read() & 0x7F) << 7 | (in.read() & 0x7F);
+    }
+
+    private static Integer parseLeadingInt(String value) {
+        if (value == null) {
+            return null;
+        }
+        int end = 0;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+        try {
+            return end == 0 ? null : Integer.valueOf(value.substring(0, end));
+        } catch (NumberFormatException x) {
+            return null;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String prefix) {
+        if (bytes.length < offset + prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[offset + i] != (byte) prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static abstract class ByteSource {
+
+        abstract int read() throws IOException;
+
+        abstract void skip(long n) throws IOException;
+
+        void readFully(byte[] bytes, int offset, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                bytes[offset + i] = (byte) read();
+            }
+        }
+
+        int readIntBE() throws IOException {
+            return read() << 24 | read() << 16 | read() << 8 | read();
+        }
+
+        int readIntLE() throws IOException {
+            return read() | read() << 8 | read() << 16 | read() << 24;
+        }
+
+        long readLongBE() throws IOException {
+            return ((long) readIntBE() << 32) | (readIntBE() & 0xFFFFFFFFL);
+        }
+
+        String readType() throws IOException {
+            byte[] bytes = new byte[4];
+            readFully(bytes, 0, 4);
+            try {
+                return new String(bytes, "ISO-8859-1");
+            } catch (UnsupportedEncodingException x) {
+                throw new RuntimeException(x);
+            }
+        }
+    }
+
+    /**
+     * Random access to a file through a small buffer.
+     */
+    private static class Input extends ByteSource {
+        private final RandomAccessFile file;
+        private final byte[] buffer;
+        private final long length;
+        private long bufferStart;
+        private int bufferLength;
+        private long position;
+
+        Input(RandomAccessFile file, byte[] buffer) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+            length = file.length();
+        }
+
+        long length() {
+            return length;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        @Override
+        void skip(long n) {
+            position += n;
+        }
+
+        @Override
+        int read() throws IOException {
+            if (position < bufferStart || position >= bufferStart + bufferLength) {
+                fill(position);
+                if (bufferLength <= 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer[(int) (position++ - bufferStart)] & 0xFF;
+        }
+
+        /**
+         * Returns the offset of the last occurrence of the given ASCII pattern within the range, or -1.
+         */
+        long findLast(String pattern, long start, long end) throws IOException {
+            int n = pattern.length();
+            long chunkEnd = end;
+            while (chunkEnd - start >= n) {
+                long chunkStart = Math.max(start, chunkEnd - buffer.length);
+                fill(chunkStart);
+                for (int i = (int) Math.min(bufferLength, chunkEnd - chunkStart) - n; i >= 0; i--) {
+                    boolean match = true;
+                    for (int j = 0; j < n && match; j++) {
+                        match = buffer[i + j] == (byte) pattern.charAt(j);
+                    }
+                    if (match) {
+                        return chunkStart + i;
+                    }
+                }
+                if (chunkStart == start) {
+                    break;
+                }
+                // Overlap chunks, so that matches across the boundary are found.
+                chunkEnd = chunkStart + n - 1;
+            }
+            return -1L;
+        }
+
+        private void fill(long start) throws IOException {
+            file.seek(start);
+            bufferStart = start;
+            bufferLength = Math.max(file.read(buffer, 0, buffer.length), 0);
+        }
+    }
+
+    /**
+     * Reads the contents of consecutive Ogg pages as one stream, skipping page headers.
+     */
+    private static class OggPacketInput extends ByteSource {
+        private final Input in;
+        private long pageRemaining;
+
+        OggPacketInput(Input in) throws IOException {
+            this.in = in;
+            in.seek(0);
+            readPageHeader();
+        }
+
+        void nextPage() throws IOException {
+            in.skip(pageRemaining);
+            readPageHeader();
+        }
+
+        @Override
+        int read() throws IOException {
+            while (pageRemaining == 0) {
+                readPageHeader();
+            }
+            pageRemaining--;
+            return in.read();
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            while (n > 0) {
+                while (pageRemaining == 0) {
+                    readPageHeader();
+                }
+                long step = Math.min(n, pageRemaining);
+                in.skip(step);
+                pageRemaining -= step;
+                n -= step;
+            }
+        }
+
+        private void readPageHeader() throws IOException {
+            if (in.readIntBE() != 0x4F676753) { // "OggS"
+                throw new IOException("Invalid Ogg page at " + (in.position() - 4));
+            }
+            in.skip(22);
+            int segments = in.read();
+            long length = 0L;
+            for (int i = 0; i < segments; i++) {
+                length += in.read();
+            }
+            pageRemaining = length;
+        }
+    }
+
+    /**
+     * Tags and stream properties of a music file.  Any of them may be {@code null}.
+     */
+    public static class Tags implements Serializable {
+        private static final long serialVersionUID = 6094232154187440311L;
+
+        private String title;
+        private String artist;
+        private String album;
+        private String genre;
+        private Integer track;
+        private Integer year;
+        private Integer duration;
+        private Integer bitRate;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getArtist() {
+            return artist;
+        }
+
+        public String getAlbum() {
+            return album;
+        }
+
+        public String getGenre() {
+            return genre;
+        }
+
+        public Integer getTrack() {
+            return track;
+        }
+
+        public Integer getYear() {
+            return year;
+        }
+
+        /**
+         * Returns the duration in seconds.
+         */
+        public Integer getDuration() {
+            return duration;
+        }
+
+        /**
+         * Returns the (average) bit rate in kbps.
+         */
+        public Integer getBitRate() {
+            return bitRate;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the pixels of decoded list thumbnails in a memory-mapped file instead of the Java heap,
+ * so that scrolling long album lists does not cause garbage collection pauses.
+ * <p/>
+ * All thumbnails have the same size, so the file is divided into fixed slots that are reused in
+ * LRU order.  The content is not kept between runs.
+ *
+ * @author Sindre Mehus
+ */
+public class ThumbnailStore {
+
+    private static final String TAG = ThumbnailStore.class.getSimpleName();
+    private static final String FILENAME = "thumbnails.bin";
+
+    private final int size;
+    private final int slotBytes;
+    private final int slotCount;
+    private final MappedByteBuffer buffer;
+
+    // Slot index by key, in access order.
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>(16, 0.75F, true);
+    private int nextSlot;
+
+    /**
+     * Creates a store for square ARGB_8888 thumbnails of the given size.
+     *
+     * @return The store, or <code>null</code> if the file could not be mapped.
+     */
+    public static ThumbnailStore create(Context context, int size, long maxBytes) {
+        try {
+            return new ThumbnailStore(new File(context.getCacheDir(), FILENAME), size, maxBytes);
+        } catch (IOException x) {
+            Log.w(TAG, "Failed to create thumbnail store.", x);
+            return null;
+        }
+    }
+
+    private ThumbnailStore(File file, int size, long maxBytes) throws IOException {
+        this.size = size;
+        slotBytes = size * size * 4;
+        slotCount = (int) Math.max(1L, maxBytes / slotBytes);
+
+        long length = (long) slotCount * slotBytes;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+            // The mapping stays valid after the file is closed.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            Util.close(raf);
+        }
+        Log.i(TAG, "Created thumbnail store with " + slotCount + " slots of " + size + "x" + size + ".");
+    }
+
+    public synchronized boolean contains(String key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     * Copies the pixels of the given bitmap into the store.  Bitmaps of the wrong size or format
+     * are ignored.
+     */
+    public synchronized boolean put(String key, Bitmap bitmap) {
+        if (bitmap.getWidth() != size || bitmap.getHeight() != size || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return false;
+        }
+
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            if (nextSlot < slotCount) {
+                slot = nextSlot++;
+            } else {
+                Iterator<Map.Entry<String, Integer>> eldest = slots.entrySet().iterator();
+                slot = eldest.next().getValue();
+                eldest.remove();
+            }
+        }
+
+        bitmap.copyPixelsToBuffer(getSlot(slot));
+        slots.put(key, slot);
+        return true;
+    }
+
+    /**
+     * Copies the pixels of the given key into the target bitmap, which should have been created
+     * with {@link #createBitmap()}.
+     *
+     * @return Whether the key was found.
+     */
+    public synchronized boolean get(String key, Bitmap target) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            return false;
+        }
+        target.copyPixelsFromBuffer(getSlot(slot));
+        return true;
+    }
+
+    /**
+     * Creates a bitmap that thumbnails can be read into.  Callers should reuse it.
+     */
+    public Bitmap createBitmap() {
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        nextSlot = 0;
+    }
+
+    private ByteBuffer getSlot(int slot) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(slot * slotBytes);
+        slice.limit(slot * slotBytes + slotBytes);
+        return slice;
+    }
+}
@@ -18,38 +18,72 @@
  */
 package github.madmarty.madsonic.util;
 
-import java.lang.ref.SoftReference;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Holds a single value for a limited time.
+ *
  * @author Sindre Mehus
  * @version $Id$
  */
-public class TimeLimitedCache<T> {
+public class TimeLimitedCache<T> implements CacheManager.ManagedCache {
 
-    private SoftReference<T> value;
+    private T value;
+    private long size;
     private final long ttlMillis;
+    private final CacheManager.Sizer<? super T> sizer;
     private long expires;
 
     public TimeLimitedCache(long ttl, TimeUnit timeUnit) {
+        this(ttl, timeUnit, null);
+    }
+
+    public TimeLimitedCache(long ttl, TimeUnit timeUnit, CacheManager.Sizer<? super T> sizer) {
         this.ttlMillis = TimeUnit.MILLISECONDS.convert(ttl, timeUnit);
+        this.sizer = sizer;
     }
 
-    public T get() {
-        return System.currentTimeMillis() < expires ? value.get() : null;
+    public synchronized T get() {
+        if (System.currentTimeMillis() < expires) {
+            return value;
+        }
+        clear();
+        return null;
     }
 
     public void set(T value) {
         set(value, ttlMillis, TimeUnit.MILLISECONDS);
     }
 
-    public void set(T value, long ttl, TimeUnit timeUnit) {
-        this.value = new SoftReference<T>(value);
+    public synchronized void set(T value, long ttl, TimeUnit timeUnit) {
+        this.value = value;
+        size = sizer == null || value == null ? 0L : sizer.sizeOf(value);
         expires = System.currentTimeMillis() + timeUnit.toMillis(ttl);
     }
 
-    public void clear() {
+    public synchronized void clear() {
         expires = 0L;
         value = null;
+        size = 0L;
+    }
+
+    @Override
+    public synchronized long getSizeInBytes() {
+        return size;
+    }
+
+    /**
+     * A single value has no budget of its own; it is kept in full or not at all.
+     */
+    @Override
+    public synchronized long getMaxSizeInBytes() {
+        return size;
+    }
+
+    @Override
+    public void trim(float fraction) {
+        if (fraction < 1.0F) {
+            clear();
+        }
     }
 }
@@ -0,0 +1,70 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+/**
+ * A token bucket rate limiter.
+ * <p/>
+ * Tokens accrue at the configured rate, up to one second's worth.  Taking more tokens than are available
+ * puts the bucket in debt, and the caller is told how long to wait for it to be paid off.  Later callers
+ * see the debt too, so concurrent users of the same bucket share its rate.  Instances are thread safe.
+ *
+ * @author Sindre Mehus
+ */
+public class TokenBucket {
+
+    // Bytes per second, or zero for unlimited.
+    private long rate;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Sets the rate in bytes per second.  Zero means unlimited.
+     */
+    public synchronized void setRate(long rate) {
+        if (rate == this.rate) {
+            return;
+        }
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    /**
+     * Takes the given number of tokens from the bucket.
+     *
+     * @return How many milliseconds the caller should wait before taking more, or zero if it needn't wait.
+     */
+    public synchronized long take(long count) {
+        if (rate <= 0L) {
+            return 0L;
+        }
+        refill();
+        tokens -= count;
+        return tokens >= 0 ? 0L : (long) Math.ceil(-tokens * 1000.0 / rate);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0L) {
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1.0E9);
+        }
+        lastRefillNanos = now;
+    }
+}
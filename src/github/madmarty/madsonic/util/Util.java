@@ -29,6 +29,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -37,6 +38,7 @@ import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
@@ -124,6 +126,19 @@ public final class Util {
         return prefs.getBoolean(Constants.PREFERENCES_KEY_SCREEN_LIT_ON_DOWNLOAD, false);
     }
 
+    /**
+     * Returns the size of the cover art that is saved with downloaded songs.
+     */
+    public static int getSavedCoverArtSize(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        return Math.min(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    public static boolean isOffHeapThumbnails(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        return prefs.getBoolean(Constants.PREFERENCES_KEY_OFFHEAP_THUMBNAILS, false);
+    }
+
     public static RepeatMode getRepeatMode(Context context) {
         SharedPreferences prefs = getPreferences(context);
         return RepeatMode.valueOf(prefs.getString(Constants.PREFERENCES_KEY_REPEAT_MODE, RepeatMode.OFF.name()));
@@ -203,6 +218,21 @@ public final class Util {
         return Integer.parseInt(prefs.getString(wifi ? Constants.PREFERENCES_KEY_MAX_BITRATE_WIFI : Constants.PREFERENCES_KEY_MAX_BITRATE_MOBILE, "0"));
     }
 
+    /**
+     * Returns the speed limit for preloads and pinned songs on the active network, in KB/s, or zero if unlimited.
+     */
+    public static int getDownloadRateLimit(Context context) {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return 0;
+        }
+
+        boolean wifi = networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+        SharedPreferences prefs = getPreferences(context);
+        return Integer.parseInt(prefs.getString(wifi ? Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_WIFI : Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_MOBILE, "0"));
+    }
+
     public static int getPreloadCount(Context context) {
         SharedPreferences prefs = getPreferences(context);
         int preloadCount = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_PRELOAD_COUNT, "-1"));
@@ -307,6 +337,7 @@ public final class Util {
             in = new FileInputStream(from);
             out = new FileOutputStream(tmp);
             in.getChannel().transferTo(0, from.length(), out.getChannel());
+            out.getFD().sync();
             out.close();
             if (!tmp.renameTo(to)) {
                 throw new IOException("Failed to rename " + tmp + " to " + to);
@@ -323,6 +354,19 @@ public final class Util {
         }
     }
 
+    /**
+     * Moves a file into place by renaming it, which is atomic when both are on the same volume.
+     * Falls back to copying otherwise.  The file should have been synced to disk.
+     */
+    public static void atomicMove(File from, File to) throws IOException {
+        if (from.renameTo(to)) {
+            Log.i(TAG, "Renamed " + from + " to " + to);
+            return;
+        }
+        atomicCopy(from, to);
+        delete(from);
+    }
+
     public static void close(Closeable closeable) {
         try {
             if (closeable != null) {
@@ -559,6 +603,32 @@ public final class Util {
         return prefs.getBoolean(Constants.PREFERENCES_KEY_WIFI_REQUIRED_FOR_DOWNLOAD, false);
     }
 
+    /**
+     * Returns whether pinned songs may be downloaded now.  If so configured, that's only on Wi-Fi while
+     * the device is charging.
+     */
+    public static boolean isSaveWindowOpen(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        if (!prefs.getBoolean(Constants.PREFERENCES_KEY_SAVE_ON_WIFI_WHILE_CHARGING, false)) {
+            return true;
+        }
+
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+        boolean wifiConnected = networkInfo != null && networkInfo.isConnected() && networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+
+        // The battery status is a sticky broadcast, so it can be read without registering a receiver.
+        Intent battery = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        return wifiConnected && charging;
+    }
+
+    public static boolean isSegmentedDownloads(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        return prefs.getBoolean(Constants.PREFERENCES_KEY_SEGMENTED_DOWNLOADS, false);
+    }
+
     public static void info(Context context, int titleId, int messageId) {
         showDialog(context, android.R.drawable.ic_dialog_info, titleId, messageId);
     }
@@ -592,8 +662,7 @@ public final class Util {
 
         // Set the album art.
         try {
-            int size = context.getResources().getDrawable(R.drawable.unknown_album).getIntrinsicHeight();
-            Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, song, size);
+            Bitmap bitmap = NowPlayingArtwork.getInstance().getNotificationBitmap(context, song);
             if (bitmap == null) {
 		// set default album art
 		contentView.setImageViewResource(R.id.notification_image, R.drawable.unknown_album);
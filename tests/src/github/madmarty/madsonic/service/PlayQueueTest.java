@@ -0,0 +1,290 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link PlayQueue} and {@link PlayQueue.Diff}, checked against an {@link ArrayList}.
+ *
+ * @author Sindre Mehus
+ */
+public class PlayQueueTest extends TestCase {
+
+    private static final int ROUNDS = 20000;
+
+    private final Random random = new Random(4711L);
+    private int nextId;
+
+    public void testRandomOperations() {
+        PlayQueue<Item> queue = new PlayQueue<Item>();
+        List<Item> expected = new ArrayList<Item>();
+        Item current = null;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int size = expected.size();
+            int operation = random.nextInt(size < 50 ? 6 : 10);
+            if (operation < 4 || size == 0) {
+                int index = random.nextInt(size + 1);
+                Item item = newItem();
+                queue.add(index, item);
+                expected.add(index, item);
+            } else if (operation < 6) {
+                Item item = newItem();
+                queue.add(item);
+                expected.add(item);
+            } else if (operation == 6) {
+                int index = random.nextInt(size);
+                assertSame(expected.remove(index), queue.remove(index));
+            } else if (operation == 7) {
+                Item item = expected.get(random.nextInt(size));
+                assertTrue(queue.remove(item));
+                expected.remove(item);
+            } else if (operation == 8) {
+                int index = random.nextInt(size);
+                Item item = newItem();
+                assertSame(expected.set(index, item), queue.set(index, item));
+            } else {
+                int index = random.nextInt(size);
+                current = expected.get(index);
+                queue.setCurrent(current);
+            }
+
+            if (!expected.contains(current)) {
+                current = null;
+            }
+            if (round % 10 == 0) {
+                assertSameList(expected, queue);
+            }
+            assertEquals(current == null ? -1 : expected.indexOf(current), queue.getCurrentIndex());
+        }
+        assertSameList(expected, queue);
+
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertEquals(-1, queue.getCurrentIndex());
+    }
+
+    public void testIteratorRemove() {
+        for (int round = 0; round < 200; round++) {
+            PlayQueue<Item> queue = new PlayQueue<Item>();
+            List<Item> expected = new ArrayList<Item>();
+            int size = random.nextInt(100);
+            for (int i = 0; i < size; i++) {
+                Item item = newItem();
+                queue.add(item);
+                expected.add(item);
+            }
+            Item current = size == 0 ? null : expected.get(random.nextInt(size));
+            queue.setCurrent(current);
+
+            Iterator<Item> iterator = queue.iterator();
+            Iterator<Item> expectedIterator = expected.iterator();
+            while (expectedIterator.hasNext()) {
+                assertTrue(iterator.hasNext());
+                Item item = iterator.next();
+                assertSame(expectedIterator.next(), item);
+                if (random.nextBoolean()) {
+                    iterator.remove();
+                    expectedIterator.remove();
+                    if (item == current) {
+                        current = null;
+                    }
+                    assertEquals(current == null ? -1 : expected.indexOf(current), queue.getCurrentIndex());
+                }
+            }
+            assertFalse(iterator.hasNext());
+            assertSameList(expected, queue);
+        }
+    }
+
+    public void testRejectsDuplicates() {
+        PlayQueue<Item> queue = new PlayQueue<Item>();
+        Item item = newItem();
+        queue.add(item);
+        try {
+            queue.add(item);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException x) {
+            // Expected.
+        }
+        assertEquals(1, queue.size());
+    }
+
+    public void testDiffOfUnchangedList() {
+        List<Item> list = newItems(10);
+        PlayQueue.Diff diff = new PlayQueue.Diff(3L, list, new ArrayList<Item>(list));
+        assertTrue(diff.isEmpty());
+        assertEquals(3L, diff.getFromRevision());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i, diff.getNewPosition(i));
+        }
+    }
+
+    public void testDiffOfAppend() {
+        List<Item> from = newItems(5);
+        List<Item> to = new ArrayList<Item>(from);
+        to.addAll(newItems(3));
+        PlayQueue.Diff diff = new PlayQueue.Diff(1L, from, to);
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getMoved().isEmpty());
+        assertEquals(1, diff.getInserted().size());
+        assertEquals(5, diff.getInserted().get(0).getTo());
+        assertEquals(3, diff.getInserted().get(0).getCount());
+    }
+
+    public void testDiffOfMove() {
+        List<Item> from = newItems(10);
+        List<Item> to = new ArrayList<Item>(from);
+        to.add(7, to.remove(2));
+        PlayQueue.Diff diff = new PlayQueue.Diff(1L, from, to);
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getInserted().isEmpty());
+        assertEquals(1, diff.getMoved().size());
+        assertEquals(1, diff.getMoved().get(0).getCount());
+        assertApplies(from, to, diff);
+    }
+
+    public void testRandomDiffs() {
+        for (int round = 0; round < 5000; round++) {
+            List<Item> from = newItems(random.nextInt(40));
+            List<Item> to = new ArrayList<Item>(from);
+            if (random.nextInt(4) == 0) {
+                Collections.shuffle(to, random);
+            } else {
+                int operations = random.nextInt(6);
+                for (int i = 0; i < operations; i++) {
+                    int operation = random.nextInt(3);
+                    if (operation == 0 || to.isEmpty()) {
+                        to.add(random.nextInt(to.size() + 1), newItem());
+                    } else if (operation == 1) {
+                        to.remove(random.nextInt(to.size()));
+                    } else {
+                        Item item = to.remove(random.nextInt(to.size()));
+                        to.add(random.nextInt(to.size() + 1), item);
+                    }
+                }
+            }
+
+            PlayQueue.Diff diff = new PlayQueue.Diff(1L, from, to);
+            assertApplies(from, to, diff);
+            assertEquals(from.equals(to), diff.isEmpty());
+        }
+    }
+
+    /**
+     * Checks that the diff turns the old list into the new one: the songs that remain go to their new
+     * positions, and the inserted ranges fill exactly the remaining ones.  Also checks that the removed and
+     * moved ranges agree with the new positions, and that no song counts as moved that kept its order.
+     */
+    private static void assertApplies(List<Item> from, List<Item> to, PlayQueue.Diff diff) {
+        Item[] result = new Item[to.size()];
+        boolean[] removed = new boolean[from.size()];
+        for (PlayQueue.Range range : diff.getRemoved()) {
+            assertEquals(-1, range.getTo());
+            for (int i = range.getFrom(); i < range.getFrom() + range.getCount(); i++) {
+                removed[i] = true;
+            }
+        }
+
+        for (int i = 0; i < from.size(); i++) {
+            int j = diff.getNewPosition(i);
+            assertEquals("Removed " + i, removed[i], j == -1);
+            if (j != -1) {
+                assertNull("Position " + j + " taken twice", result[j]);
+                result[j] = from.get(i);
+            }
+        }
+        for (PlayQueue.Range range : diff.getInserted()) {
+            assertEquals(-1, range.getFrom());
+            for (int j = range.getTo(); j < range.getTo() + range.getCount(); j++) {
+                assertNull("Inserted over position " + j, result[j]);
+                result[j] = to.get(j);
+            }
+        }
+
+        boolean[] moved = new boolean[from.size()];
+        for (PlayQueue.Range range : diff.getMoved()) {
+            for (int k = 0; k < range.getCount(); k++) {
+                assertEquals(range.getTo() + k, diff.getNewPosition(range.getFrom() + k));
+                moved[range.getFrom() + k] = true;
+            }
+        }
+        int last = -1;
+        for (int i = 0; i < from.size(); i++) {
+            if (!removed[i] && !moved[i]) {
+                assertTrue("Kept songs out of order", diff.getNewPosition(i) > last);
+                last = diff.getNewPosition(i);
+            }
+        }
+
+        for (int j = 0; j < result.length; j++) {
+            assertSame("Position " + j, to.get(j), result[j]);
+        }
+    }
+
+    private static void assertSameList(List<Item> expected, PlayQueue<Item> queue) {
+        assertEquals(expected.size(), queue.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Item item = expected.get(i);
+            assertSame(item, queue.get(i));
+            assertEquals(i, queue.indexOf(item));
+            assertTrue(queue.contains(item));
+        }
+        int i = 0;
+        for (Item item : queue) {
+            assertSame(expected.get(i++), item);
+        }
+        assertEquals(expected.size(), i);
+    }
+
+    private Item newItem() {
+        return new Item(nextId++);
+    }
+
+    private List<Item> newItems(int count) {
+        List<Item> items = new ArrayList<Item>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(newItem());
+        }
+        return items;
+    }
+
+    /**
+     * Stands in for a download file.  The queue compares elements by identity.
+     */
+    private static class Item {
+        private final int id;
+
+        Item(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "Item " + id;
+        }
+    }
+}
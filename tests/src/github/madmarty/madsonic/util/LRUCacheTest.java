@@ -0,0 +1,123 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link LRUCache}.
+ *
+ * @author Sindre Mehus
+ */
+public class LRUCacheTest extends TestCase {
+
+    private static final CacheManager.Sizer<String> STRING_SIZER = new CacheManager.Sizer<String>() {
+        @Override
+        public long sizeOf(String value) {
+            return value.length();
+        }
+    };
+
+    private static final CacheManager.Sizer<TimeLimitedCache<?>> TIME_LIMITED_CACHE_SIZER = new CacheManager.Sizer<TimeLimitedCache<?>>() {
+        @Override
+        public long sizeOf(TimeLimitedCache<?> cache) {
+            return cache.getSizeInBytes();
+        }
+    };
+
+    public void testSizeInBytes() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(10, 100L, STRING_SIZER);
+        cache.put("a", "aaaa");
+        cache.put("b", "bb");
+        assertEquals(6L, cache.getSizeInBytes());
+
+        cache.put("a", "a");
+        assertEquals(3L, cache.getSizeInBytes());
+
+        assertEquals("bb", cache.remove("b"));
+        assertEquals(1L, cache.getSizeInBytes());
+
+        cache.clear();
+        assertEquals(0L, cache.getSizeInBytes());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(10, 10L, STRING_SIZER);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccc");
+
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8L, cache.getSizeInBytes());
+    }
+
+    public void testEvictsByCapacity() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(2);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.getSizeInBytes());
+    }
+
+    /**
+     * An expired value reports a size of zero, but the cache must still release what it was charged.
+     */
+    public void testExpiredValueIsReleased() {
+        LRUCache<String, TimeLimitedCache<String>> cache =
+                new LRUCache<String, TimeLimitedCache<String>>(10, 100L, TIME_LIMITED_CACHE_SIZER);
+
+        TimeLimitedCache<String> value = new TimeLimitedCache<String>(0, TimeUnit.MILLISECONDS, STRING_SIZER);
+        value.set("aaaa");
+        cache.put("a", value);
+        assertEquals(4L, cache.getSizeInBytes());
+
+        assertNull(cache.get("a").get());
+        assertEquals(0L, value.getSizeInBytes());
+
+        TimeLimitedCache<String> replacement = new TimeLimitedCache<String>(1, TimeUnit.HOURS, STRING_SIZER);
+        replacement.set("bbbbbb");
+        cache.put("a", replacement);
+        assertEquals(6L, cache.getSizeInBytes());
+
+        cache.remove("a");
+        assertEquals(0L, cache.getSizeInBytes());
+    }
+
+    public void testTrim() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(10, 100L, STRING_SIZER);
+        for (int i = 0; i < 10; i++) {
+            cache.put(String.valueOf(i), "0123456789");
+        }
+        assertEquals(100L, cache.getSizeInBytes());
+
+        cache.trim(0.5F);
+        assertEquals(5, cache.size());
+        assertEquals(50L, cache.getSizeInBytes());
+        assertNull(cache.get("0"));
+        assertEquals("0123456789", cache.get("9"));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package github.madmarty.madsonic.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link PollingFileWatcher}.  Polls by hand, the scheduled interval is never reached.
+ *
+ * @author Sindre Mehus
+ */
+public class PollingFileWatcherTest extends TestCase {
+
+    private final List<File> changes = new ArrayList<File>();
+    private PollingFileWatcher watcher;
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("watched", null);
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+
+        watcher = new PollingFileWatcher(1, TimeUnit.DAYS);
+        watcher.setListener(new FileChangeWatcher.Listener() {
+            @Override
+            public void onFileChanged(File file) {
+                changes.add(file);
+            }
+        });
+        watcher.watch(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        watcher.stop();
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public void testUnchanged() {
+        watcher.poll();
+        assertEquals(0, changes.size());
+    }
+
+    public void testCreateAndDelete() throws Exception {
+        File file = new File(dir, "song.mp3");
+        assertTrue(file.createNewFile());
+        touch(dir, 10000L);
+        watcher.poll();
+        assertEquals(1, changes.size());
+        assertEquals(file, changes.get(0));
+
+        changes.clear();
+        assertTrue(file.delete());
+        touch(dir, 20000L);
+        watcher.poll();
+        assertEquals(1, changes.size());
+        assertEquals(file, changes.get(0));
+    }
+
+    public void testDirectoryRemoved() {
+        assertTrue(dir.delete());
+        watcher.poll();
+        assertEquals(1, changes.size());
+        assertEquals(dir, changes.get(0));
+
+        changes.clear();
+        watcher.poll();
+        assertEquals(0, changes.size());
+    }
+
+    public void testUnwatch() throws Exception {
+        watcher.unwatch(dir);
+        assertTrue(new File(dir, "song.mp3").createNewFile());
+        touch(dir, 10000L);
+        watcher.poll();
+        assertEquals(0, changes.size());
+    }
+
+    // The modification time may have a coarse resolution, so move it explicitly.
+    private static void touch(File dir, long offset) {
+        assertTrue(dir.setLastModified(dir.lastModified() + offset));
+    }
+}